@@ -0,0 +1,59 @@
+/**
+ * This class forecasts the request arrival rate with Holt's double
+ * exponential smoothing over per-second arrival counts.
+ * The level follows the current rate and the trend follows how fast
+ * it changes, so a ramp or a spike is extrapolated far enough ahead
+ * to cover the boot time of a new VM.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class ArrivalForecaster {
+    private final double alpha;
+    private final double beta;
+    private double level = 0;
+    private double trend = 0;
+    private boolean initialized = false;
+
+    ArrivalForecaster(double alpha, double beta) {
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+
+    /**
+     * Add the arrival rate observed over the last interval.
+     *
+     * @param rate observed arrivals per second.
+     */
+    public synchronized void update(double rate) {
+        if (!initialized) {
+            level = rate;
+            trend = 0;
+            initialized = true;
+            return;
+        }
+        double prevLevel = level;
+        level = alpha * rate + (1 - alpha) * (level + trend);
+        trend = beta * (level - prevLevel) + (1 - beta) * trend;
+    }
+
+    /**
+     * Forecast the arrival rate some seconds ahead.
+     * Only an upward trend is extrapolated, since scaling in is left
+     * to the idle detection of each tier.
+     *
+     * @param seconds how far ahead to forecast.
+     * @return forecast arrivals per second, never negative.
+     */
+    public synchronized double forecast(double seconds) {
+        return Math.max(level + Math.max(trend, 0) * seconds, 0);
+    }
+
+    /**
+     * Get the smoothed arrival rate without extrapolation.
+     *
+     * @return smoothed arrivals per second.
+     */
+    public synchronized double getLevel() {
+        return level;
+    }
+}
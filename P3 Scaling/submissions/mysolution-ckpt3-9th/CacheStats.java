@@ -0,0 +1,41 @@
+import java.io.Serializable;
+
+/**
+ * This class is used to carry the hit and miss counts of the two
+ * database cache levels: the near caches of the mid-tiers and the
+ * cache of the coordinator.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class CacheStats implements Serializable {
+    private final long nearHits;
+    private final long nearMisses;
+    private final long coordinatorHits;
+    private final long coordinatorMisses;
+
+    CacheStats(long nearHits,
+               long nearMisses,
+               long coordinatorHits,
+               long coordinatorMisses) {
+        this.nearHits = nearHits;
+        this.nearMisses = nearMisses;
+        this.coordinatorHits = coordinatorHits;
+        this.coordinatorMisses = coordinatorMisses;
+    }
+
+    public long getNearHits() {
+        return nearHits;
+    }
+
+    public long getNearMisses() {
+        return nearMisses;
+    }
+
+    public long getCoordinatorHits() {
+        return coordinatorHits;
+    }
+
+    public long getCoordinatorMisses() {
+        return coordinatorMisses;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * This class plans the size of the mid tier with an M/M/c model.
+ * The mid-tiers report how long they spend per request, which gives
+ * the service rate mu; together with the arrival rate lambda the
+ * planner finds the smallest number of servers c whose expected
+ * queueing delay (Erlang C) stays below the latency target.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class CapacityPlanner {
+    private double serviceTimeMs = Constants.CONFIG_INITIAL_SERVICE_TIME;
+
+    /**
+     * Record the service time reported by a mid-tier.
+     *
+     * @param count number of requests processed.
+     * @param busyMs total time spent processing them in milliseconds.
+     */
+    public synchronized void recordService(int count, long busyMs) {
+        if (count <= 0) return;
+        double alpha = Constants.CONFIG_SERVICE_TIME_ALPHA;
+        serviceTimeMs = alpha * ((double) busyMs / count)
+                + (1 - alpha) * serviceTimeMs;
+    }
+
+    /**
+     * Get the estimated mean service time of a mid-tier.
+     *
+     * @return service time in milliseconds.
+     */
+    public synchronized double getServiceTime() {
+        return serviceTimeMs;
+    }
+
+    /**
+     * Plan the number of mid-tiers for the given arrival rate.
+     *
+     * @param arrivalRate arrivals per second.
+     * @return number of mid-tiers needed, at least the minimum size.
+     */
+    public int plan(double arrivalRate) {
+        return plan(arrivalRate, getServiceTime());
+    }
+
+    /**
+     * Plan the number of mid-tiers for the given arrival rate
+     * and service time.
+     *
+     * @param arrivalRate arrivals per second.
+     * @param serviceTimeMs mean service time in milliseconds.
+     * @return number of mid-tiers needed, at least the minimum size.
+     */
+    static int plan(double arrivalRate, double serviceTimeMs) {
+        double mu = 1000.0 / serviceTimeMs;
+        double targetSeconds = Constants.CONFIG_QUEUEING_DELAY_TARGET / 1000.0;
+        for (int c = Constants.MIN_MID_TIER_SIZE;
+             c < Constants.MAX_MID_TIER_SIZE; c++) {
+            if (queueingDelay(c, arrivalRate, mu) <= targetSeconds) {
+                return c;
+            }
+        }
+        return Constants.MAX_MID_TIER_SIZE;
+    }
+
+    /**
+     * Get the expected queueing delay of an M/M/c queue.
+     *
+     * @param c number of servers.
+     * @param lambda arrivals per second.
+     * @param mu services per second of one server.
+     * @return expected delay in seconds, infinite if overloaded.
+     */
+    static double queueingDelay(int c, double lambda, double mu) {
+        if (lambda <= 0) return 0;
+        double a = lambda / mu;
+        if (a >= c) return Double.POSITIVE_INFINITY;
+        // Erlang B by recursion, then Erlang C from it
+        double erlangB = 1;
+        for (int k = 1; k <= c; k++) {
+            erlangB = a * erlangB / (k + a * erlangB);
+        }
+        double erlangC = c * erlangB / (c - a * (1 - erlangB));
+        return erlangC / (c * mu - lambda);
+    }
+}
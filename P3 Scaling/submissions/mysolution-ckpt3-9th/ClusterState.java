@@ -0,0 +1,104 @@
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * This class is used to carry the cluster state the coordinator
+ * pushes to its slaves, so their loops read it locally instead of
+ * asking the coordinator: the tier registry, the mid-tiers to push
+ * to, the master queue length and the planned mid tier size.
+ * It also carries the directives of the coordinator. The admission
+ * rate tells the front tiers how many connections to drop, and a VM
+ * left out of the registry is being scaled in and drains itself.
+ * The tier registry is only included when its epoch moved past the
+ * one the slave was last sent.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class ClusterState implements Serializable {
+    private final long sequence;
+    private final TierView tierView;
+    private final List<Integer> midTierIds;
+    private final int masterQLength;
+    private final int plannedMidTierSize;
+    private final double admissionRate;
+
+    ClusterState(long sequence,
+                 TierView tierView,
+                 List<Integer> midTierIds,
+                 int masterQLength,
+                 int plannedMidTierSize,
+                 double admissionRate) {
+        this.sequence = sequence;
+        this.tierView = tierView;
+        this.midTierIds = midTierIds;
+        this.masterQLength = masterQLength;
+        this.plannedMidTierSize = plannedMidTierSize;
+        this.admissionRate = admissionRate;
+    }
+
+    /**
+     * Get the sequence number of this state, which only goes up,
+     * so that a late push does not overwrite a newer one.
+     *
+     * @return sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Get the tier registry, if it changed since the last push.
+     *
+     * @return view of the registry, null if it has not changed.
+     */
+    public TierView getTierView() {
+        return tierView;
+    }
+
+    /**
+     * Get the mid-tier VMs that front tiers can push requests to.
+     *
+     * @return ids of running mid-tier VMs.
+     */
+    public List<Integer> getMidTierIds() {
+        return midTierIds;
+    }
+
+    /**
+     * Get the number of requests waiting at the coordinator.
+     *
+     * @return length of master queue.
+     */
+    public int getMasterQLength() {
+        return masterQLength;
+    }
+
+    /**
+     * Get the mid tier size the scaling policy wants.
+     *
+     * @return planned number of mid-tier VMs.
+     */
+    public int getPlannedMidTierSize() {
+        return plannedMidTierSize;
+    }
+
+    /**
+     * Get the rate each front tier should admit connections at.
+     *
+     * @return connections per second, infinite to admit all.
+     */
+    public double getAdmissionRate() {
+        return admissionRate;
+    }
+
+    /**
+     * Copy this state without the tier registry, for a slave that
+     * already has its epoch.
+     *
+     * @return the same state without the registry.
+     */
+    ClusterState withoutTierView() {
+        return new ClusterState(sequence, null, midTierIds, masterQLength,
+                plannedMidTierSize, admissionRate);
+    }
+}
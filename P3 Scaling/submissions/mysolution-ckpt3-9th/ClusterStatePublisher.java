@@ -0,0 +1,149 @@
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class pushes the cluster state from the coordinator to the
+ * subscribed slaves.
+ * A push is only sent when the state changed, or when the slaves
+ * have heard nothing for a while, so that they can tell a quiet
+ * cluster from a lost coordinator. Each slave is sent the tier
+ * registry only when it has not seen its current epoch.
+ * Each push runs on its own thread and a slave has at most one push
+ * in flight, so one hung slave does not hold up the others. When a
+ * push returns and a newer state was published meanwhile, the slave
+ * is sent the newer state right away. A slave is only dropped after
+ * several pushes in a row failed, and subscribes again if it comes
+ * back.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class ClusterStatePublisher {
+    private final Map<Integer, Subscriber> subscribers =
+            new ConcurrentHashMap<>();
+    private long sequence = 0;
+    private long prevPublishTime = 0;
+    private long prevEpoch = -1;
+    private List<Integer> prevMidTierIds;
+    private int prevMasterQLength = -1;
+    private int prevPlannedMidTierSize = -1;
+    private double prevAdmissionRate = -1;
+    private TierView view;
+    private volatile ClusterState latest;
+    private final ExecutorService senders =
+            Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Subscribe a VM to the cluster state.
+     *
+     * @param vmId VM id.
+     * @param slave the VM to push to.
+     */
+    public void subscribe(int vmId, SlaveRMI slave) {
+        subscribers.put(vmId, new Subscriber(slave));
+    }
+
+    /**
+     * Push the cluster state to every subscriber if it changed or
+     * the keep alive interval passed.
+     * Called from a single thread. A slave has at most one push in
+     * flight, so pushes to it stay in order.
+     *
+     * @param registry tier registry of the coordinator.
+     * @param midTierIds mid-tier VMs that front tiers can push to.
+     * @param masterQLength length of master queue.
+     * @param plannedMidTierSize mid tier size the policy wants.
+     * @param admissionRate rate each front tier should admit at.
+     */
+    public void publish(TierRegistry registry,
+                        List<Integer> midTierIds,
+                        int masterQLength,
+                        int plannedMidTierSize,
+                        double admissionRate) {
+        long curTime = System.currentTimeMillis();
+        long epoch = registry.getEpoch();
+        boolean isChanged = epoch != prevEpoch
+                || !Objects.equals(midTierIds, prevMidTierIds)
+                || masterQLength != prevMasterQLength
+                || plannedMidTierSize != prevPlannedMidTierSize
+                || admissionRate != prevAdmissionRate;
+        if (!isChanged && curTime - prevPublishTime
+                < Constants.CONFIG_STATE_PUSH_KEEPALIVE) {
+            return;
+        }
+        prevPublishTime = curTime;
+        prevEpoch = epoch;
+        prevMidTierIds = midTierIds;
+        prevMasterQLength = masterQLength;
+        prevPlannedMidTierSize = plannedMidTierSize;
+        prevAdmissionRate = admissionRate;
+        if (view == null || view.getEpoch() != epoch) {
+            view = registry.view();
+        }
+        latest = new ClusterState(++sequence, view, midTierIds,
+                masterQLength, plannedMidTierSize, admissionRate);
+        for (Map.Entry<Integer, Subscriber> entry : subscribers.entrySet()) {
+            push(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void push(int vmId, Subscriber subscriber) {
+        if (!subscriber.sending.compareAndSet(false, true)) {
+            // the push in flight sends the latest state when it returns
+            return;
+        }
+        ClusterState state = latest;
+        if (subscriber.epoch == state.getTierView().getEpoch()) {
+            state = state.withoutTierView();
+        }
+        ClusterState pushed = state;
+        senders.execute(() -> send(vmId, subscriber, pushed));
+    }
+
+    private void send(int vmId, Subscriber subscriber, ClusterState state) {
+        try {
+            subscriber.slave.pushClusterState(state);
+            subscriber.failures = 0;
+            if (state.getTierView() != null) {
+                subscriber.epoch = state.getTierView().getEpoch();
+            }
+        } catch (RemoteException e) {
+            if (++subscriber.failures
+                    >= Constants.CONFIG_STATE_PUSH_MAX_FAILURES) {
+                // the VM is gone, it subscribes again if it comes back
+                subscribers.remove(vmId, subscriber);
+            }
+        } finally {
+            subscriber.sending.set(false);
+        }
+        if (latest.getSequence() > state.getSequence()
+                && subscribers.get(vmId) == subscriber) {
+            push(vmId, subscriber);
+        }
+    }
+
+    /**
+     * A subscribed slave, the registry epoch it was last sent and
+     * the number of pushes to it that failed in a row.
+     */
+    private static class Subscriber {
+        private final SlaveRMI slave;
+        private final AtomicBoolean sending = new AtomicBoolean(false);
+        private volatile long epoch = -1;
+        // only touched by the push in flight
+        private volatile int failures = 0;
+
+        Subscriber(SlaveRMI slave) {
+            this.slave = slave;
+        }
+    }
+}
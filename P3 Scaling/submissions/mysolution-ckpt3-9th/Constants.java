@@ -8,19 +8,75 @@ public class Constants {
     public static final int MASTER_ID = 1;
     public static final int FRONT_TIER = 0;
     public static final int MID_TIER = 1;
+    public static final int STANDBY_TIER = 2;
     public static final double CONFIG_FRONT_SCALE_OUT = 4.0;
-    public static final double CONFIG_MID_SCALE_OUT = 1.5;
     public static final int MIN_FRONT_TIER_SIZE = 1;
     public static final int MIN_MID_TIER_SIZE = 1;
+    public static final int MAX_MID_TIER_SIZE = 20;
     public static final int CONFIG_COOL_DOWN_FRONT = 5000;
+    public static final int CONFIG_COOL_DOWN_MID = 1000;
+    public static final int CONFIG_SCALE_IN_COOL_DOWN_FRONT = 10000;
+    public static final int CONFIG_SCALE_IN_COOL_DOWN_MID = 5000;
+    public static final double CONFIG_SCALE_IN_MARGIN = 0.25;
+    public static final double CONFIG_MID_UTILIZATION_HIGH = 0.8;
+    public static final double CONFIG_MID_UTILIZATION_LOW = 0.3;
+    public static final String CONFIG_SCALING_POLICY = "hysteresis";
     public static final float MID_TIER_NO_JOB_TIME = 2500;
+    public static final float MID_TIER_PLANNED_NO_JOB_TIME = 1000;
     public static final float FRONT_TIER_NO_JOB_TIME = 1500;
     public static final int FIRST_EXTRA_VM_ID = 2;
+    public static final String DB_CACHE_NAME = "DBCache";
     public static final int CONFIG_MASTER_DEAL_REQUEST_COUNT_UP_LIMIT = 15;
     public static final int CONFIG_ARRIVAL_RATE_SCALE_OUT = 200;
     public static final int CONFIG_MASTER_BOOT_FRONT_END = 1;
     public static final int CONFIG_MASTER_BOOT_MID_END = 5;
     public static final int CONFIG_DROP_TIME_WHEN_BOOT = 200;
-    public static final int CONFIG_DROP_FAST_REQUEST_UP_LIMIT = 30;
-    public static final float CONFIG_FAST_REQUEST_RATE = 500;
+    public static final long BROWSE_TIMEOUT = 1000;
+    public static final long PURCHASE_TIMEOUT = 2000;
+    public static final double CONFIG_INITIAL_SERVICE_TIME = 100;
+    public static final double CONFIG_SERVICE_TIME_ALPHA = 0.2;
+    public static final double CONFIG_SERVICE_TIME_CAP = 0.8;
+    public static final long CONFIG_SCALING_TICK = 1000;
+    public static final long CONFIG_ARRIVAL_REPORT_INTERVAL = 1000;
+    public static final double CONFIG_FORECAST_ALPHA = 0.5;
+    public static final double CONFIG_FORECAST_BETA = 0.3;
+    public static final double CONFIG_FORECAST_HORIZON = 6.0;
+    public static final long CONFIG_SERVICE_REPORT_INTERVAL = 1000;
+    public static final double CONFIG_QUEUEING_DELAY_TARGET = 300;
+    public static final double CONFIG_FRONT_TIER_THROUGHPUT = 20.0;
+    public static final int CONFIG_MAX_SCALE_OUT_STEP = 2;
+    public static final int CONFIG_MID_BATCH_SIZE = 4;
+    public static final long CONFIG_MID_POLL_TIMEOUT = 500;
+    public static final long CONFIG_MID_DRAIN_POLL = 10;
+    public static final int CONFIG_FRONT_BATCH_SIZE = 8;
+    public static final long CONFIG_FRONT_FLUSH_LATENCY = 10;
+    public static final int CONFIG_FRONT_ACCEPTERS = 1;
+    public static final int CONFIG_FRONT_PARSERS = 1;
+    public static final int CONFIG_FRONT_ACCEPT_QUEUE_SIZE = 16;
+    public static final int CONFIG_FRONT_BUFFER_SIZE = 256;
+    public static final long CONFIG_FRONT_SUPERVISE_INTERVAL = 100;
+    public static final long CONFIG_DISPATCH_REFRESH = 1000;
+    public static final long CONFIG_DRAIN_QUIET_TIME = 200;
+    public static final int CONFIG_STANDBY_POOL_SIZE = 1;
+    public static final long CONFIG_STANDBY_POLL_TIMEOUT = 500;
+    public static final long CONFIG_TIER_REFRESH = 1000;
+    public static final int CONFIG_MID_MIN_WORKERS = 1;
+    public static final int CONFIG_MID_MAX_WORKERS = 8;
+    public static final double CONFIG_MID_LATENCY_TOLERANCE = 1.5;
+    public static final long CONFIG_MID_POOL_ADJUST_INTERVAL = 1000;
+    public static final int CONFIG_DB_CACHE_SIZE = 1024;
+    public static final int CONFIG_NEAR_CACHE_SIZE = 256;
+    public static final long CONFIG_NEAR_CACHE_TTL = 2000;
+    public static final int CONFIG_PURCHASE_LANE_LIMIT = 100;
+    public static final int CONFIG_PURCHASE_LANE_WEIGHT = 3;
+    public static final int CONFIG_BROWSE_LANE_LIMIT = 40;
+    public static final int CONFIG_BROWSE_LANE_WEIGHT = 1;
+    public static final long CONFIG_LEASE_DURATION = 4000;
+    public static final long CONFIG_LEASE_RENEW_INTERVAL = 1000;
+    public static final long CONFIG_PROGRESS_STALE = 3000;
+    public static final long CONFIG_STATE_PUSH_INTERVAL = 250;
+    public static final long CONFIG_STATE_PUSH_KEEPALIVE = 500;
+    public static final int CONFIG_STATE_PUSH_MAX_FAILURES = 3;
+    public static final double CONFIG_ADMISSION_HEADROOM = 1.5;
+    public static final double CONFIG_ADMISSION_BURST = 1.0;
 }
\ No newline at end of file
@@ -1,21 +1,41 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * Coordinator RMI interface.
  * This interface provides calls including:
- * 1. Remove VM from map.
+ * 1. Remove VM from map and start draining it.
  * 2. Get the tier number of a VM from the map.
  * 3. Add request to master queue.
  * 4. Poll request from master queue.
  * 5. Get the number of servers as front tiers.
  * 6. Get the number of servers as mid tiers.
  * 7. Scale out for target tiers.
+ * 8. Poll a batch of requests with the queue and tier state.
+ * 9. Long-poll a batch of requests, waiting until work arrives.
+ * 10. Add a batch of requests to master queue.
+ * 11. Get the mid-tier VMs that front tiers can push requests to.
+ * 12. Report the number of requests a front tier accepted.
+ * 13. Report the processing time of a mid-tier.
+ * 14. Get the lifecycle table of all VMs.
+ * 15. Report that a draining VM has finished its work.
+ * 16. Wait for a standby VM to be given a tier.
+ * 17. Move a running VM to the other tier.
+ * 18. Subscribe a mid-tier to database cache invalidations.
+ * 19. Report the hits and misses of a mid-tier near cache.
+ * 20. Get the hit and miss counts of both database cache levels.
+ * 21. Renew the lease of a slave VM.
+ * 22. Get the tier registry if it changed since a known epoch.
+ * 23. Subscribe a slave to the pushed cluster state.
  * @author Ruobing Wang (ruobing2)
  */
 public interface CoordinatorRMI extends Remote {
     /**
-     * Remove VM from map.
+     * Remove VM from map and start draining it.
+     * The VM no longer counts for its tier and gets no new work,
+     * but keeps running until it reports that it is drained.
      *
      * @param vmId VM id.
      * @return true if remove successfully, false otherwise.
@@ -32,6 +52,30 @@ public interface CoordinatorRMI extends Remote {
      */
     int getTierNum(int vmId) throws RemoteException;
 
+    /**
+     * Wait until a VM has a tier other than standby.
+     * A standby VM is booted but idle, and calls this repeatedly
+     * until the coordinator promotes it to a tier.
+     *
+     * @param vmId VM id.
+     * @param timeoutMs maximum time to wait in milliseconds.
+     * @return tier number, still standby if the timeout expired.
+     * @throws RemoteException if RMI error occurs.
+     */
+    int awaitTierAssignment(int vmId, long timeoutMs) throws RemoteException;
+
+    /**
+     * Move a running slave VM between the front and mid tiers.
+     * The VM notices the change on its next tier refresh, leaves
+     * its old role cleanly and starts the new one without a reboot.
+     *
+     * @param vmId VM id.
+     * @param tierNum tier number to move the VM to.
+     * @return true if the VM was moved, false otherwise.
+     * @throws RemoteException if RMI error occurs.
+     */
+    boolean reassignTier(int vmId, int tierNum) throws RemoteException;
+
     /**
      * Add request to master queue.
      *
@@ -41,6 +85,18 @@ public interface CoordinatorRMI extends Remote {
     void addRequestToMasterQ(Cloud.FrontEndOps.Request request)
             throws RemoteException;
 
+    /**
+     * Add a batch of requests to master queue in one round trip.
+     * Front tiers also call this on mid-tier VMs to push requests
+     * to them directly.
+     *
+     * @param requests requests from load balancer with arrival times.
+     * @return length of master queue after adding.
+     * @throws RemoteException if RMI error occurs.
+     */
+    int addRequestsToMasterQ(List<TimedRequest> requests)
+            throws RemoteException;
+
     /**
      * Poll request from master queue.
      *
@@ -50,6 +106,33 @@ public interface CoordinatorRMI extends Remote {
     Cloud.FrontEndOps.Request pollRequestFromMasterQ()
             throws RemoteException;
 
+    /**
+     * Poll a batch of requests from master queue in one round trip.
+     * The reply also carries the current and planned number of
+     * mid-tiers.
+     *
+     * @param vmId VM id of the polling mid-tier, used for its shard.
+     * @param max maximum number of requests in the batch.
+     * @return batch of requests, empty if master queue is empty.
+     * @throws RemoteException if RMI error occurs.
+     */
+    RequestBatch pollRequestsFromMasterQ(int vmId, int max)
+            throws RemoteException;
+
+    /**
+     * Long-poll a batch of requests from master queue.
+     * Blocks on the coordinator until at least one request arrives
+     * or the timeout expires, instead of spinning on empty polls.
+     *
+     * @param vmId VM id of the polling mid-tier, used for its shard.
+     * @param max maximum number of requests in the batch.
+     * @param timeoutMs maximum time to wait in milliseconds.
+     * @return batch of requests, empty if the timeout expired.
+     * @throws RemoteException if RMI error occurs.
+     */
+    RequestBatch pollRequestsFromMasterQ(int vmId, int max, long timeoutMs)
+            throws RemoteException;
+
     /**
      * Get the length of master queue.
      *
@@ -74,6 +157,109 @@ public interface CoordinatorRMI extends Remote {
      */
     int getMidTierCounter() throws RemoteException;
 
+    /**
+     * Get the ids of mid-tier VMs that are running and pulling work.
+     *
+     * @return ids of running mid-tier VMs.
+     * @throws RemoteException if RMI error occurs.
+     */
+    List<Integer> getMidTierVMIds() throws RemoteException;
+
+    /**
+     * Report the number of requests a front tier accepted since its
+     * last report, for the arrival rate forecast.
+     *
+     * @param count number of accepted requests.
+     * @throws RemoteException if RMI error occurs.
+     */
+    void reportArrivals(int count) throws RemoteException;
+
+    /**
+     * Report how long a mid-tier spent processing requests since its
+     * last report, for the capacity planner.
+     *
+     * @param count number of requests processed.
+     * @param busyMs total time spent processing them in milliseconds.
+     * @throws RemoteException if RMI error occurs.
+     */
+    void reportServiceTime(int count, long busyMs) throws RemoteException;
+
+    /**
+     * Get the lifecycle table of all VMs the coordinator knows,
+     * with the state of each VM and when it entered each state.
+     *
+     * @return map from VM id to its lifecycle record.
+     * @throws RemoteException if RMI error occurs.
+     */
+    HashMap<Integer, VmRecord> getVmLifecycle() throws RemoteException;
+
+    /**
+     * Report that a draining VM has finished all the work it accepted,
+     * so that the coordinator can end it.
+     *
+     * @param vmId VM id.
+     * @throws RemoteException if RMI error occurs.
+     */
+    void reportDrained(int vmId) throws RemoteException;
+
+    /**
+     * Subscribe a VM to the invalidations of the database cache,
+     * so it can keep a local copy of what it reads.
+     * The VM is called back through SlaveRMI.
+     *
+     * @param vmId VM id.
+     * @throws RemoteException if RMI error occurs.
+     */
+    void subscribeInvalidations(int vmId) throws RemoteException;
+
+    /**
+     * Report the hits and misses of the near cache of a mid-tier
+     * since its last report.
+     *
+     * @param hits number of reads served by the near cache.
+     * @param misses number of reads sent to the coordinator cache.
+     * @throws RemoteException if RMI error occurs.
+     */
+    void reportCacheStats(long hits, long misses) throws RemoteException;
+
+    /**
+     * Get the hit and miss counts of the near caches, summed over
+     * the mid-tiers, and of the coordinator cache.
+     *
+     * @return counts of both cache levels.
+     * @throws RemoteException if RMI error occurs.
+     */
+    CacheStats getCacheStats() throws RemoteException;
+
+    /**
+     * Renew the lease of a slave VM.
+     * A VM whose lease runs out is taken for dead, ended and
+     * replaced, so slaves renew well within the lease duration.
+     *
+     * @param vmId VM id.
+     * @throws RemoteException if RMI error occurs.
+     */
+    void renewLease(int vmId) throws RemoteException;
+
+    /**
+     * Get a view of the tier registry if its epoch moved past the one
+     * the caller holds, so an unchanged registry costs no copy.
+     *
+     * @param knownEpoch epoch of the view the caller holds, -1 if none.
+     * @return view of the registry, null if it has not changed.
+     * @throws RemoteException if RMI error occurs.
+     */
+    TierView getTierView(long knownEpoch) throws RemoteException;
+
+    /**
+     * Subscribe a VM to the cluster state the coordinator pushes.
+     * The VM is called back through SlaveRMI.
+     *
+     * @param vmId VM id.
+     * @throws RemoteException if RMI error occurs.
+     */
+    void subscribeClusterState(int vmId) throws RemoteException;
+
     /**
      * Scale out as RMI call.
      *
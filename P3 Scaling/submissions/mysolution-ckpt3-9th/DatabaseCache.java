@@ -0,0 +1,203 @@
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-through cache in front of the cloud database, run by the
+ * coordinator and exported over RMI so that mid-tiers can pass it to
+ * processRequest in place of the database.
+ * Reads are served from a bounded LRU map and go to the database only
+ * on a miss. Every key has a version that goes up whenever the key is
+ * written, and a value read from the database is only cached if the
+ * version did not move while it was being read, so a read that races
+ * a write cannot put a stale value back. Concurrent misses on the
+ * same key share one database read.
+ * A set is written through with its new value. A purchase changes a
+ * quantity the database does not return, so it evicts the quantity
+ * instead. Either way the new version is sent to the subscribed
+ * mid-tiers so they drop their local copies. The invalidations are
+ * sent from a background thread, so a write does not wait on every
+ * mid-tier, and the mid-tiers ignore versions that arrive late.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class DatabaseCache extends UnicastRemoteObject
+        implements Cloud.DatabaseOps {
+    private final Cloud.DatabaseOps db;
+    private final Map<String, String> cache;
+    private final Map<String, Long> versions = new HashMap<>();
+    private final Map<Integer, SlaveRMI> subscribers =
+            new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final LookupCoalescer lookups = new LookupCoalescer();
+    private final ExecutorService broadcaster =
+            Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    DatabaseCache(Cloud.DatabaseOps db, int capacity) throws RemoteException {
+        super();
+        this.db = db;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Subscribe a VM to the invalidations of this cache.
+     *
+     * @param vmId VM id.
+     * @param slave the VM to notify.
+     */
+    public void subscribe(int vmId, SlaveRMI slave) {
+        subscribers.put(vmId, slave);
+    }
+
+    /**
+     * Stop sending invalidations to a VM that left the mid tier.
+     *
+     * @param vmId VM id.
+     */
+    public void unsubscribe(int vmId) {
+        subscribers.remove(vmId);
+    }
+
+    /**
+     * Get a value, from the cache if present, else from the database.
+     *
+     * @param key key to look up.
+     * @return value of the key, null if the database has none.
+     * @throws RemoteException if RMI error occurs.
+     */
+    @Override
+    public String get(String key) throws RemoteException {
+        synchronized (this) {
+            String value = cache.get(key);
+            if (value != null) {
+                hits.incrementAndGet();
+                return value;
+            }
+        }
+        misses.incrementAndGet();
+        return lookups.load(key, this::fetch);
+    }
+
+    private String fetch(String key) throws RemoteException {
+        long version;
+        synchronized (this) {
+            version = versions.getOrDefault(key, 0L);
+        }
+        String value = db.get(key);
+        if (value != null) {
+            synchronized (this) {
+                if (versions.getOrDefault(key, 0L) == version) {
+                    cache.put(key, value);
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Set a value in the database and write it through to the cache.
+     *
+     * @param key key to set.
+     * @param value new value.
+     * @param auth authentication string of the database.
+     * @return true if the database accepted the write.
+     * @throws RemoteException if RMI error occurs.
+     */
+    @Override
+    public boolean set(String key, String value, String auth)
+            throws RemoteException {
+        boolean isSet = db.set(key, value, auth);
+        long version;
+        synchronized (this) {
+            version = bumpVersion(key);
+            if (isSet) {
+                cache.put(key, value);
+            } else {
+                cache.remove(key);
+            }
+        }
+        broadcast(key, version);
+        return isSet;
+    }
+
+    /**
+     * Run a purchase on the database and invalidate the quantity
+     * it changed.
+     *
+     * @param item item to buy.
+     * @param price price the client expects.
+     * @param qty quantity to buy.
+     * @return true if the purchase succeeded.
+     * @throws RemoteException if RMI error occurs.
+     */
+    @Override
+    public boolean transaction(String item, float price, int qty)
+            throws RemoteException {
+        boolean isDone = db.transaction(item, price, qty);
+        if (isDone) {
+            String key = item.trim() + "_qty";
+            long version;
+            synchronized (this) {
+                version = bumpVersion(key);
+                cache.remove(key);
+            }
+            broadcast(key, version);
+        }
+        return isDone;
+    }
+
+    /**
+     * Get the number of reads served from this cache.
+     *
+     * @return number of hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of reads that went to the database.
+     *
+     * @return number of misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private long bumpVersion(String key) {
+        lookups.forget(key);
+        return versions.merge(key, 1L, Long::sum);
+    }
+
+    private void broadcast(String key, long version) {
+        broadcaster.execute(() -> sendInvalidation(key, version));
+    }
+
+    private void sendInvalidation(String key, long version) {
+        for (Map.Entry<Integer, SlaveRMI> entry : subscribers.entrySet()) {
+            try {
+                entry.getValue().invalidate(key, version);
+            } catch (RemoteException e) {
+                // the VM is gone, it has no copy to worry about
+                subscribers.remove(entry.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * The staged front tier of a VM.
+ * Accepter threads take connections from the load balancer, a pool
+ * of parser threads turns them into requests, and the parsed
+ * requests go to a sink that forwards them to the mid-tiers.
+ * The queue between accepting and parsing is bounded: when the
+ * parsers fall behind, a connection is dropped before paying for
+ * parsing it instead of timing out after.
+ * Connections are also admitted through a token bucket whose rate the
+ * coordinator sizes from what the mid tier can serve, so a front tier
+ * turns away the excess of an overload as soon as it accepts it.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class FrontPipeline {
+    private final ServerLib sl;
+    private final Consumer<TimedRequest> sink;
+    private final InstrumentedQueue<AcceptedConnection> connections =
+            new InstrumentedQueue<>(Constants.CONFIG_FRONT_ACCEPT_QUEUE_SIZE);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final TokenBucket admission = new TokenBucket();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final List<Thread> stages = new ArrayList<>();
+
+    FrontPipeline(ServerLib sl, Consumer<TimedRequest> sink) {
+        this.sl = sl;
+        this.sink = sink;
+    }
+
+    /**
+     * Start the accepter and parser threads, once.
+     */
+    public synchronized void start() {
+        if (!stages.isEmpty()) return;
+        for (int i = 0; i < Constants.CONFIG_FRONT_ACCEPTERS; i++) {
+            startStage(this::runAccepter);
+        }
+        for (int i = 0; i < Constants.CONFIG_FRONT_PARSERS; i++) {
+            startStage(this::runParser);
+        }
+    }
+
+    /**
+     * Wait for the pipeline threads, which run as long as the VM.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void join() throws InterruptedException {
+        List<Thread> threads;
+        synchronized (this) {
+            threads = new ArrayList<>(stages);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Get the number of accepted connections waiting to be parsed.
+     *
+     * @return number of waiting connections.
+     */
+    public int getBacklog() {
+        return connections.size();
+    }
+
+    /**
+     * Check whether every accepted connection has been handed on.
+     *
+     * @return true if nothing is being accepted or parsed.
+     */
+    public boolean isIdle() {
+        return inFlight.get() == 0;
+    }
+
+    /**
+     * Set the rate connections are admitted at.
+     *
+     * @param rate connections per second, infinite to admit all.
+     */
+    public void setAdmissionRate(double rate) {
+        admission.setRate(rate);
+    }
+
+    /**
+     * Get the connections turned away by admission or by a full
+     * parse queue since the last call and reset the counters, so
+     * they still count as arrivals.
+     *
+     * @return number of rejected connections.
+     */
+    public int takeRejected() {
+        return rejected.getAndSet(0) + connections.takeRejected();
+    }
+
+    private void startStage(Runnable stage) {
+        Thread thread = new Thread(stage);
+        thread.setDaemon(true);
+        stages.add(thread);
+        thread.start();
+    }
+
+    private void runAccepter() {
+        while (true) {
+            ServerLib.Handle handle = sl.acceptConnection();
+            // null when the input queue was woken up without work
+            if (handle == null) continue;
+            if (!admission.tryAcquire()) {
+                // more than the mid tier can serve, reject before parsing
+                sl.dropConnection(handle);
+                rejected.incrementAndGet();
+                continue;
+            }
+            inFlight.incrementAndGet();
+            if (!connections.offer(new AcceptedConnection(handle,
+                    System.currentTimeMillis()))) {
+                sl.dropConnection(handle);
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private void runParser() {
+        while (true) {
+            AcceptedConnection connection;
+            try {
+                connection = connections.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                Cloud.FrontEndOps.Request r =
+                        sl.parseRequest(connection.handle);
+                if (r != null) {
+                    sink.accept(new TimedRequest(r, connection.acceptTime));
+                }
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A connection taken from the load balancer and the time it was
+     * accepted, which starts the client timeout of its request.
+     */
+    private static class AcceptedConnection {
+        private final ServerLib.Handle handle;
+        private final long acceptTime;
+
+        AcceptedConnection(ServerLib.Handle handle, long acceptTime) {
+            this.handle = handle;
+            this.acceptTime = acceptTime;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * The default scaling policy.
+ * The desired mid tier size comes from the M/M/c capacity planner on
+ * the forecast arrival rate, and the desired front tier size from the
+ * forecast rate and the client queue at the master.
+ * Tier sizes include booting VMs, so capacity that is on its way is
+ * never requested twice.
+ * Each tier has a held target. It is raised as soon as the desired
+ * size is above it, and lowered by one VM at a time while it is above
+ * the desired size by more than the hysteresis margin. Otherwise it
+ * stays where it is, so a lowered target holds until demand changes.
+ * Each tier has its own cooldowns, so the two tiers no longer
+ * oscillate against each other.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class HysteresisScalingPolicy implements ScalingPolicy {
+    private long prevFrontChangeTime = 0;
+    private long prevMidChangeTime = 0;
+    private int frontTarget = -1;
+    private int midTarget = -1;
+
+    @Override
+    public synchronized TierTargets decide(MetricsSnapshot snapshot) {
+        int frontCount = snapshot.getFrontTierCount();
+        int midCount = snapshot.getMidTierCount();
+        int desiredMid = CapacityPlanner.plan(snapshot.getForecastRate(),
+                snapshot.getMidServiceTime());
+        int desiredFront = (int) Math.ceil(snapshot.getForecastRate()
+                / Constants.CONFIG_FRONT_TIER_THROUGHPUT);
+        // a long client queue only asks for more when none is booting
+        if (snapshot.getFrontQueueLength() > Constants.CONFIG_FRONT_SCALE_OUT
+                && snapshot.getBootingFrontCount() == 0) {
+            desiredFront = Math.max(desiredFront, frontCount + 1);
+        }
+
+        if (frontTarget < 0) {
+            frontTarget = frontCount;
+            midTarget = midCount;
+        }
+        long time = snapshot.getTime();
+        if (desiredFront > frontTarget) {
+            if (time - prevFrontChangeTime > Constants.CONFIG_COOL_DOWN_FRONT) {
+                frontTarget = desiredFront;
+                prevFrontChangeTime = time;
+            }
+        } else if (belowBand(desiredFront, frontTarget)
+                && time - prevFrontChangeTime
+                > Constants.CONFIG_SCALE_IN_COOL_DOWN_FRONT) {
+            frontTarget--;
+            prevFrontChangeTime = time;
+        }
+
+        if (desiredMid > midTarget) {
+            if (time - prevMidChangeTime > Constants.CONFIG_COOL_DOWN_MID) {
+                midTarget = desiredMid;
+                prevMidChangeTime = time;
+            }
+        } else if (belowBand(desiredMid, midTarget)
+                && time - prevMidChangeTime
+                > Constants.CONFIG_SCALE_IN_COOL_DOWN_MID) {
+            midTarget--;
+            prevMidChangeTime = time;
+        }
+        TierTargets targets = new TierTargets(frontTarget, midTarget);
+        // never hold a target below the minimum tier sizes
+        frontTarget = targets.getFrontTarget();
+        midTarget = targets.getMidTarget();
+        return targets;
+    }
+
+    private static boolean belowBand(int desired, int current) {
+        return desired * (1 + Constants.CONFIG_SCALE_IN_MARGIN) < current;
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded queue between two stages of a pipeline that counts the
+ * offers it turns away, so that the clients dropped by a stage
+ * falling behind are still reported as demand to the coordinator.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class InstrumentedQueue<E> {
+    private final BlockingQueue<E> queue;
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    InstrumentedQueue(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Add an element if there is room, without blocking.
+     *
+     * @param e element to add.
+     * @return true if added, false if the queue is full.
+     */
+    public boolean offer(E e) {
+        if (!queue.offer(e)) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public E take() throws InterruptedException {
+        return queue.take();
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        return queue.drainTo(c, maxElements);
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Get the elements turned away because the queue was full since
+     * the last call and reset the counter.
+     *
+     * @return number of rejected offers.
+     */
+    public int takeRejected() {
+        return rejected.getAndSet(0);
+    }
+}
@@ -0,0 +1,245 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * The master queue split into a purchase lane and a browse lane,
+ * each a sharded queue with its own admission limit and weight.
+ * Batches are filled from the lanes by smooth weighted round robin,
+ * and a lane left short takes from the other one, so no slot stays
+ * idle while either lane has work.
+ * A full browse lane sheds the oldest request of the shard the new
+ * one goes to, which is close to timing out anyway. A full purchase
+ * lane turns the new request away. Both limits are kept with an
+ * atomic count, so concurrent adds never overshoot or shed twice. With a smaller limit on browses, an overload sheds
+ * browses long before purchases wait.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class LanedRequestQueue {
+    private final Lane purchases;
+    private final Lane browses;
+    private final Consumer<TimedRequest> shed;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile int waiters = 0;
+
+    LanedRequestQueue(Consumer<TimedRequest> shed) {
+        this.shed = shed;
+        this.purchases = new Lane(Constants.CONFIG_PURCHASE_LANE_LIMIT,
+                Constants.CONFIG_PURCHASE_LANE_WEIGHT, false, shed);
+        this.browses = new Lane(Constants.CONFIG_BROWSE_LANE_LIMIT,
+                Constants.CONFIG_BROWSE_LANE_WEIGHT, true, shed);
+    }
+
+    /**
+     * Add a request to the lane of its class.
+     * A request shed to keep the lane within its limit is passed
+     * to the shed handler.
+     *
+     * @param request request from load balancer.
+     */
+    public void add(TimedRequest request) {
+        Lane lane = laneOf(request);
+        if (lane.shedOldest) {
+            TimedRequest oldest = lane.queue.addOrDisplace(request,
+                    lane.limit);
+            if (oldest != null) {
+                shed.accept(oldest);
+            }
+        } else if (!lane.queue.tryAdd(request, lane.limit)) {
+            shed.accept(request);
+            return;
+        }
+        signalWaiters();
+    }
+
+    /**
+     * Add a batch of requests, each to the lane of its class.
+     *
+     * @param requests requests from load balancer.
+     */
+    public void addAll(Collection<TimedRequest> requests) {
+        for (TimedRequest r : requests) {
+            add(r);
+        }
+    }
+
+    /**
+     * Poll one request, from the lane whose turn it is.
+     *
+     * @return request, null if the queue is empty.
+     */
+    public TimedRequest poll() {
+        Lane first = nextLanes(1) > 0 ? purchases : browses;
+        TimedRequest r = first.queue.poll();
+        if (r == null) {
+            r = other(first).queue.poll();
+        }
+        return r;
+    }
+
+    /**
+     * Poll a batch for the given mid-tier VM without blocking,
+     * sharing the batch between the lanes by their weights.
+     *
+     * @param vmId VM id of the mid-tier.
+     * @param max maximum number of requests in the batch.
+     * @return batch of requests, empty if the queue is empty.
+     */
+    public List<TimedRequest> poll(int vmId, int max) {
+        int slots = Math.min(max, size());
+        if (slots <= 0) {
+            return new ArrayList<>();
+        }
+        int purchaseSlots = nextLanes(slots);
+        List<TimedRequest> batch = new ArrayList<>(slots);
+        if (purchaseSlots > 0) {
+            batch.addAll(purchases.queue.poll(vmId, purchaseSlots));
+        }
+        if (batch.size() < max) {
+            batch.addAll(browses.queue.poll(vmId, max - batch.size()));
+        }
+        if (batch.size() < max) {
+            batch.addAll(purchases.queue.poll(vmId, max - batch.size()));
+        }
+        return batch;
+    }
+
+    /**
+     * Poll a batch for the given mid-tier VM, waiting until
+     * a request arrives or the timeout expires.
+     *
+     * @param vmId VM id of the mid-tier.
+     * @param max maximum number of requests in the batch.
+     * @param timeoutMs maximum time to wait in milliseconds.
+     * @return batch of requests, empty if the timeout expired.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public List<TimedRequest> poll(int vmId, int max, long timeoutMs)
+            throws InterruptedException {
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            List<TimedRequest> batch = poll(vmId, max);
+            long remaining = deadline - System.nanoTime();
+            if (!batch.isEmpty() || remaining <= 0) {
+                return batch;
+            }
+            lock.lock();
+            try {
+                // register before checking so an add cannot slip between
+                waiters++;
+                if (size() == 0) {
+                    notEmpty.awaitNanos(remaining);
+                }
+            } finally {
+                waiters--;
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Add an empty shard in both lanes for a mid-tier VM.
+     *
+     * @param vmId VM id of the mid-tier.
+     */
+    public void addShard(int vmId) {
+        purchases.queue.addShard(vmId);
+        browses.queue.addShard(vmId);
+    }
+
+    /**
+     * Check whether a mid-tier VM has its shards.
+     *
+     * @param vmId VM id of the mid-tier.
+     * @return true if the VM has its shards, false otherwise.
+     */
+    public boolean hasShard(int vmId) {
+        return purchases.queue.hasShard(vmId) && browses.queue.hasShard(vmId);
+    }
+
+    /**
+     * Remove the shards of a mid-tier VM in both lanes.
+     *
+     * @param vmId VM id of the mid-tier.
+     */
+    public void removeShard(int vmId) {
+        purchases.queue.removeShard(vmId);
+        browses.queue.removeShard(vmId);
+    }
+
+    /**
+     * Get the total number of requests over both lanes.
+     *
+     * @return number of requests.
+     */
+    public int size() {
+        return purchases.queue.size() + browses.queue.size();
+    }
+
+    private Lane laneOf(TimedRequest request) {
+        return request.getRequest().isPurchase ? purchases : browses;
+    }
+
+    private Lane other(Lane lane) {
+        return lane == purchases ? browses : purchases;
+    }
+
+    /**
+     * Hand out the next slots by smooth weighted round robin.
+     *
+     * @param slots number of slots to hand out.
+     * @return number of the slots that go to the purchase lane.
+     */
+    private synchronized int nextLanes(int slots) {
+        int total = purchases.weight + browses.weight;
+        int purchaseSlots = 0;
+        for (int i = 0; i < slots; i++) {
+            purchases.current += purchases.weight;
+            browses.current += browses.weight;
+            if (purchases.current >= browses.current) {
+                purchases.current -= total;
+                purchaseSlots++;
+            } else {
+                browses.current -= total;
+            }
+        }
+        return purchaseSlots;
+    }
+
+    private void signalWaiters() {
+        if (waiters == 0) return;
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * One lane of the queue and its policy.
+     */
+    private static class Lane {
+        private final ShardedRequestQueue queue;
+        private final int limit;
+        private final int weight;
+        private final boolean shedOldest;
+        // current weight of the smooth round robin, guarded by the queue
+        private int current = 0;
+
+        Lane(int limit, int weight, boolean shedOldest,
+             Consumer<TimedRequest> overflow) {
+            this.queue = new ShardedRequestQueue(limit, overflow);
+            this.limit = limit;
+            this.weight = weight;
+            this.shedOldest = shedOldest;
+        }
+    }
+}
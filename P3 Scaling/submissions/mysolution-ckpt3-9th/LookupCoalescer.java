@@ -0,0 +1,76 @@
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * This class is used to coalesce concurrent lookups of the same key.
+ * The first lookup of a key does the read, and lookups of that key
+ * arriving while it is in flight wait for its result instead of
+ * sending their own, so a burst on a hot item costs one read.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class LookupCoalescer {
+    private final Map<String, CompletableFuture<String>> inFlight =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Look up a key, joining the read already in flight for it if any.
+     *
+     * @param key key to look up.
+     * @param loader read to run if no read of the key is in flight.
+     * @return value of the key.
+     * @throws RemoteException if the read fails.
+     */
+    public String load(String key, Loader loader) throws RemoteException {
+        CompletableFuture<String> flight = new CompletableFuture<>();
+        CompletableFuture<String> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            return await(leader);
+        }
+        try {
+            String value = loader.load(key);
+            flight.complete(value);
+            return value;
+        } catch (RemoteException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Stop later lookups of a key from joining the read in flight,
+     * because the key was written after that read started.
+     *
+     * @param key key that was written.
+     */
+    public void forget(String key) {
+        inFlight.remove(key);
+    }
+
+    private static String await(CompletableFuture<String> leader)
+            throws RemoteException {
+        try {
+            return leader.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw new RemoteException("lookup failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("interrupted waiting for lookup", e);
+        }
+    }
+
+    /**
+     * A read of one key.
+     */
+    public interface Loader {
+        String load(String key) throws RemoteException;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * This class is used to store the cluster metrics the coordinator
+ * collects on a scaling tick, as the input of a scaling policy.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class MetricsSnapshot {
+    private final long time;
+    private final double arrivalRate;
+    private final double forecastRate;
+    private final double midServiceTime;
+    private final int frontQueueLength;
+    private final int frontTierCount;
+    private final int midTierCount;
+    private final int bootingFrontCount;
+    private final int bootingMidCount;
+
+    MetricsSnapshot(long time,
+                    double arrivalRate,
+                    double forecastRate,
+                    double midServiceTime,
+                    int frontQueueLength,
+                    int frontTierCount,
+                    int midTierCount,
+                    int bootingFrontCount,
+                    int bootingMidCount) {
+        this.time = time;
+        this.arrivalRate = arrivalRate;
+        this.forecastRate = forecastRate;
+        this.midServiceTime = midServiceTime;
+        this.frontQueueLength = frontQueueLength;
+        this.frontTierCount = frontTierCount;
+        this.midTierCount = midTierCount;
+        this.bootingFrontCount = bootingFrontCount;
+        this.bootingMidCount = bootingMidCount;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Get the smoothed arrival rate over all front tiers.
+     *
+     * @return arrivals per second.
+     */
+    public double getArrivalRate() {
+        return arrivalRate;
+    }
+
+    /**
+     * Get the arrival rate forecast one boot time ahead.
+     *
+     * @return arrivals per second.
+     */
+    public double getForecastRate() {
+        return forecastRate;
+    }
+
+    /**
+     * Get the mean time a mid-tier spends per request.
+     *
+     * @return service time in milliseconds.
+     */
+    public double getMidServiceTime() {
+        return midServiceTime;
+    }
+
+    /**
+     * Get the length of the client queue at the master front tier.
+     *
+     * @return number of clients waiting at the master.
+     */
+    public int getFrontQueueLength() {
+        return frontQueueLength;
+    }
+
+    /**
+     * Get the number of front tiers, including the ones still booting.
+     *
+     * @return number of front tiers.
+     */
+    public int getFrontTierCount() {
+        return frontTierCount;
+    }
+
+    /**
+     * Get the number of mid-tiers, including the ones still booting.
+     *
+     * @return number of mid-tiers.
+     */
+    public int getMidTierCount() {
+        return midTierCount;
+    }
+
+    /**
+     * Get the number of front tiers still booting, which is capacity
+     * that is already on its way.
+     *
+     * @return number of booting front tiers.
+     */
+    public int getBootingFrontCount() {
+        return bootingFrontCount;
+    }
+
+    /**
+     * Get the number of mid-tiers still booting, which is capacity
+     * that is already on its way.
+     *
+     * @return number of booting mid-tiers.
+     */
+    public int getBootingMidCount() {
+        return bootingMidCount;
+    }
+}
@@ -0,0 +1,115 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class is used by front tiers to push requests straight to
+ * mid-tier VMs, so the coordinator only serves membership and a
+ * request crosses RMI once instead of twice.
+ * Each request goes to the less loaded of two randomly chosen
+ * mid-tiers (power of two choices), using the queue lengths the
+ * mid-tiers returned on previous pushes.
+ * The list of mid-tiers comes with the cluster state the coordinator
+ * pushes, and is only polled when no push has arrived for a while.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class MidTierDispatcher {
+    private final CoordinatorRMI coordinator;
+    private final Map<Integer, CoordinatorRMI> stubs =
+            new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> queueLengths =
+            new ConcurrentHashMap<>();
+    private volatile List<Integer> midTierIds = new ArrayList<>();
+    private volatile long prevRefreshTime = 0;
+
+    MidTierDispatcher(CoordinatorRMI coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * Replace the list of mid-tiers to push to.
+     *
+     * @param ids ids of running mid-tier VMs.
+     */
+    public void update(List<Integer> ids) {
+        prevRefreshTime = System.currentTimeMillis();
+        stubs.keySet().retainAll(ids);
+        queueLengths.keySet().retainAll(ids);
+        midTierIds = ids;
+    }
+
+    /**
+     * Push a batch of requests to the mid-tiers.
+     * Requests that could not be pushed are returned so the caller
+     * can hand them to the coordinator instead.
+     *
+     * @param batch requests from load balancer.
+     * @return requests that were not delivered to any mid-tier.
+     */
+    public List<TimedRequest> dispatch(List<TimedRequest> batch) {
+        refreshIfStale();
+        List<Integer> ids = midTierIds;
+        if (ids.isEmpty()) {
+            return batch;
+        }
+        Map<Integer, List<TimedRequest>> groups = new HashMap<>();
+        for (TimedRequest r : batch) {
+            int target = pickTarget(ids);
+            groups.computeIfAbsent(target, id -> new ArrayList<>()).add(r);
+            queueLengths.merge(target, 1, Integer::sum);
+        }
+        List<TimedRequest> undelivered = new ArrayList<>();
+        for (Map.Entry<Integer, List<TimedRequest>> group
+                : groups.entrySet()) {
+            if (!push(group.getKey(), group.getValue())) {
+                undelivered.addAll(group.getValue());
+            }
+        }
+        return undelivered;
+    }
+
+    private boolean push(int vmId, List<TimedRequest> requests) {
+        CoordinatorRMI stub = stubs.computeIfAbsent(vmId,
+                id -> Server.lookUpServer(id));
+        if (stub == null) {
+            stubs.remove(vmId);
+            return false;
+        }
+        try {
+            queueLengths.put(vmId, stub.addRequestsToMasterQ(requests));
+            return true;
+        } catch (RemoteException e) {
+            // the VM is gone or not bound yet, forget it until refresh
+            stubs.remove(vmId);
+            List<Integer> ids = new ArrayList<>(midTierIds);
+            ids.remove(Integer.valueOf(vmId));
+            midTierIds = ids;
+            return false;
+        }
+    }
+
+    private int pickTarget(List<Integer> ids) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = ids.get(random.nextInt(ids.size()));
+        int second = ids.get(random.nextInt(ids.size()));
+        return queueLengths.getOrDefault(first, 0)
+                <= queueLengths.getOrDefault(second, 0) ? first : second;
+    }
+
+    private void refreshIfStale() {
+        long curTime = System.currentTimeMillis();
+        if (curTime - prevRefreshTime < Constants.CONFIG_DISPATCH_REFRESH) {
+            return;
+        }
+        prevRefreshTime = curTime;
+        try {
+            update(coordinator.getMidTierVMIds());
+        } catch (RemoteException ignored) {
+        }
+    }
+}
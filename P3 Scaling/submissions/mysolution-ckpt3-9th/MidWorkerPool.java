@@ -0,0 +1,194 @@
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A pool of worker threads inside a mid-tier VM, so that the VM
+ * serves several requests at a time while some of them wait on
+ * the database.
+ * The pool size follows the measured request latency. Latency is
+ * compared to the lowest latency seen for the same request type:
+ * the pool grows by one while all workers are busy and latency
+ * stays close to that floor, and shrinks by one once extra workers
+ * only add waiting.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class MidWorkerPool {
+    private final Consumer<TimedRequest> handler;
+    private final BlockingQueue<TimedRequest> work =
+            new LinkedBlockingQueue<>();
+    private final AtomicInteger busy = new AtomicInteger();
+    // submitted requests whose handler has not returned yet
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger workers = new AtomicInteger();
+    private final Object slotLock = new Object();
+    private volatile int targetSize = Constants.CONFIG_MID_MIN_WORKERS;
+
+    // latency state, guarded by this
+    private double minBrowseLatency = Double.MAX_VALUE;
+    private double minPurchaseLatency = Double.MAX_VALUE;
+    private double latencyRatio = 1;
+    private int maxBusySinceAdjust = 0;
+    private long prevAdjustTime = System.currentTimeMillis();
+
+    MidWorkerPool(Consumer<TimedRequest> handler) {
+        this.handler = handler;
+        startWorkers();
+    }
+
+    /**
+     * Hand requests to the workers.
+     *
+     * @param requests requests to process.
+     */
+    public void submit(Collection<TimedRequest> requests) {
+        pending.addAndGet(requests.size());
+        work.addAll(requests);
+    }
+
+    /**
+     * Get how many more requests the pool can take. Each worker
+     * holds up to one mid batch, so a single worker still prefetches
+     * a whole batch per poll.
+     *
+     * @return number of requests to poll for the pool.
+     */
+    public int getFreeSlots() {
+        int capacity = targetSize * Constants.CONFIG_MID_BATCH_SIZE;
+        return Math.max(capacity - pending.get(), 0);
+    }
+
+    /**
+     * Wait until the pool can take more requests or the timeout expires.
+     *
+     * @param timeoutMs maximum time to wait in milliseconds.
+     * @return number of requests the pool can take.
+     */
+    public int awaitFreeSlots(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (slotLock) {
+            int free = getFreeSlots();
+            long remaining = deadline - System.currentTimeMillis();
+            while (free == 0 && remaining > 0) {
+                try {
+                    slotLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                free = getFreeSlots();
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return free;
+        }
+    }
+
+    /**
+     * Wait until every submitted request has been processed,
+     * including one a worker has taken but not started on yet.
+     */
+    public void awaitIdle() {
+        while (pending.get() > 0) {
+            awaitFreeSlots(Constants.CONFIG_MID_DRAIN_POLL);
+        }
+    }
+
+    /**
+     * Get the number of workers the pool is sized for.
+     *
+     * @return pool size.
+     */
+    public int getSize() {
+        return targetSize;
+    }
+
+    /**
+     * Record the latency of a processed request and resize the pool
+     * once per adjust interval.
+     *
+     * @param isPurchase whether the request was a purchase.
+     * @param elapsedMs measured latency in milliseconds.
+     */
+    public void recordLatency(boolean isPurchase, long elapsedMs) {
+        synchronized (this) {
+            double floor;
+            if (isPurchase) {
+                minPurchaseLatency = Math.min(minPurchaseLatency, elapsedMs);
+                floor = minPurchaseLatency;
+            } else {
+                minBrowseLatency = Math.min(minBrowseLatency, elapsedMs);
+                floor = minBrowseLatency;
+            }
+            double alpha = Constants.CONFIG_SERVICE_TIME_ALPHA;
+            latencyRatio = alpha * (elapsedMs / Math.max(floor, 1))
+                    + (1 - alpha) * latencyRatio;
+            long curTime = System.currentTimeMillis();
+            if (curTime - prevAdjustTime
+                    < Constants.CONFIG_MID_POOL_ADJUST_INTERVAL) {
+                return;
+            }
+            prevAdjustTime = curTime;
+            if (latencyRatio > Constants.CONFIG_MID_LATENCY_TOLERANCE) {
+                targetSize = Math.max(targetSize - 1,
+                        Constants.CONFIG_MID_MIN_WORKERS);
+            } else if (maxBusySinceAdjust >= targetSize) {
+                // only grow when every worker was busy at once
+                targetSize = Math.min(targetSize + 1,
+                        Constants.CONFIG_MID_MAX_WORKERS);
+            }
+            maxBusySinceAdjust = 0;
+        }
+        startWorkers();
+    }
+
+    private void startWorkers() {
+        while (true) {
+            int count = workers.get();
+            if (count >= targetSize) return;
+            if (workers.compareAndSet(count, count + 1)) {
+                Thread worker = new Thread(this::runWorker);
+                worker.setDaemon(true);
+                worker.start();
+            }
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            // retire when the pool has shrunk
+            int count = workers.get();
+            if (count > targetSize && workers.compareAndSet(count, count - 1)) {
+                return;
+            }
+            TimedRequest r;
+            try {
+                r = work.poll(Constants.CONFIG_MID_POLL_TIMEOUT,
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                workers.decrementAndGet();
+                return;
+            }
+            if (r == null) continue;
+            noteBusy(busy.incrementAndGet());
+            try {
+                handler.accept(r);
+            } catch (RuntimeException ignored) {
+                // a failed request must not take its worker down
+            } finally {
+                busy.decrementAndGet();
+                pending.decrementAndGet();
+                synchronized (slotLock) {
+                    slotLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private synchronized void noteBusy(int busyCount) {
+        maxBusySinceAdjust = Math.max(maxBusySinceAdjust, busyCount);
+    }
+}
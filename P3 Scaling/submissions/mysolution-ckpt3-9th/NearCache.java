@@ -0,0 +1,189 @@
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The local database cache of a mid-tier, the first level in front
+ * of the cache of the coordinator, so that repeated reads do not
+ * cross RMI at all.
+ * Writes go straight to the coordinator and drop the local copy of
+ * the key they change, so this VM reads its own writes before the
+ * invalidation arrives. The coordinator sends the new version of
+ * every key it changes, and a value fetched while the key was
+ * invalidated or written is not kept. Entries also expire after a
+ * time to live, which bounds how long a copy can outlive a lost
+ * invalidation. Concurrent misses on the same key share one read.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class NearCache implements Cloud.DatabaseOps {
+    private final Cloud.DatabaseOps remote;
+    private final long ttlMs;
+    private final Map<String, Entry> cache;
+    private final Map<String, Long> versions = new HashMap<>();
+    private final Map<String, Long> localWrites = new HashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final LookupCoalescer lookups = new LookupCoalescer();
+
+    NearCache(Cloud.DatabaseOps remote, int capacity, long ttlMs) {
+        this.remote = remote;
+        this.ttlMs = ttlMs;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get a value, from the local cache if present, else from the
+     * coordinator.
+     *
+     * @param key key to look up.
+     * @return value of the key, null if the database has none.
+     * @throws RemoteException if RMI error occurs.
+     */
+    @Override
+    public String get(String key) throws RemoteException {
+        synchronized (this) {
+            Entry entry = cache.get(key);
+            if (entry != null
+                    && entry.expiresAt > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            if (entry != null) {
+                cache.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return lookups.load(key, this::fetch);
+    }
+
+    private String fetch(String key) throws RemoteException {
+        long version;
+        long curTime = System.currentTimeMillis();
+        synchronized (this) {
+            version = stamp(key);
+        }
+        String value = remote.get(key);
+        if (value != null) {
+            synchronized (this) {
+                if (stamp(key) == version) {
+                    cache.put(key, new Entry(value, curTime + ttlMs));
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Set a value through the coordinator and drop the local copy.
+     *
+     * @param key key to set.
+     * @param value new value.
+     * @param auth authentication string of the database.
+     * @return true if the database accepted the write.
+     * @throws RemoteException if RMI error occurs.
+     */
+    @Override
+    public boolean set(String key, String value, String auth)
+            throws RemoteException {
+        try {
+            return remote.set(key, value, auth);
+        } finally {
+            dropLocal(key);
+        }
+    }
+
+    /**
+     * Run a purchase through the coordinator and drop the local copy
+     * of the quantity it changed.
+     *
+     * @param item item to buy.
+     * @param price price the client expects.
+     * @param qty quantity to buy.
+     * @return true if the purchase succeeded.
+     * @throws RemoteException if RMI error occurs.
+     */
+    @Override
+    public boolean transaction(String item, float price, int qty)
+            throws RemoteException {
+        try {
+            return remote.transaction(item, price, qty);
+        } finally {
+            dropLocal(item.trim() + "_qty");
+        }
+    }
+
+    private synchronized void dropLocal(String key) {
+        // counted apart from the versions of the coordinator, so that
+        // its invalidations are still told apart by version alone
+        localWrites.merge(key, 1L, Long::sum);
+        cache.remove(key);
+        lookups.forget(key);
+    }
+
+    private long stamp(String key) {
+        return versions.getOrDefault(key, 0L)
+                + localWrites.getOrDefault(key, 0L);
+    }
+
+    /**
+     * Drop the local copy of a key the coordinator changed.
+     * Versions may arrive out of order, so only a newer one counts.
+     *
+     * @param key key that was changed.
+     * @param version version of the key after the change.
+     */
+    public synchronized void invalidate(String key, long version) {
+        if (version <= versions.getOrDefault(key, 0L)) return;
+        versions.put(key, version);
+        cache.remove(key);
+        lookups.forget(key);
+    }
+
+    /**
+     * Drop every local copy, for when invalidations may have been
+     * missed while this VM was not subscribed.
+     */
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Get the hits since the last call and reset the counter.
+     *
+     * @return number of reads served locally.
+     */
+    public long takeHits() {
+        return hits.getAndSet(0);
+    }
+
+    /**
+     * Get the misses since the last call and reset the counter.
+     *
+     * @return number of reads sent to the coordinator.
+     */
+    public long takeMisses() {
+        return misses.getAndSet(0);
+    }
+
+    /**
+     * A cached value and the time it expires.
+     */
+    private static class Entry {
+        private final String value;
+        private final long expiresAt;
+
+        Entry(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
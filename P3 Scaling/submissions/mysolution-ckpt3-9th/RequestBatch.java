@@ -0,0 +1,41 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is used to carry a batch of requests polled from the
+ * master queue, together with the coordinator state a mid-tier needs
+ * for its scaling decisions, in a single RMI reply.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class RequestBatch implements Serializable {
+    private final List<TimedRequest> requests;
+    private final int midTierCount;
+    private final int plannedMidTierSize;
+
+    RequestBatch(List<TimedRequest> requests,
+                 int midTierCount,
+                 int plannedMidTierSize) {
+        this.requests = requests == null ? new ArrayList<>() : requests;
+        this.midTierCount = midTierCount;
+        this.plannedMidTierSize = plannedMidTierSize;
+    }
+
+    public List<TimedRequest> getRequests() {
+        return requests;
+    }
+
+    public int getMidTierCount() {
+        return midTierCount;
+    }
+
+    /**
+     * Get the number of mid-tiers the capacity planner wants.
+     *
+     * @return planned number of mid-tiers.
+     */
+    public int getPlannedMidTierSize() {
+        return plannedMidTierSize;
+    }
+}
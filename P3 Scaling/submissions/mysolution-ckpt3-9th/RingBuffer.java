@@ -0,0 +1,117 @@
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock-free queue for many producers and many consumers,
+ * on a ring of slots allocated once.
+ * Every slot carries a sequence number that tells whether it is
+ * free for the producer at a position or filled for the consumer
+ * at a position, so producers and consumers only race on their own
+ * position counter and never block each other. An offer to a full
+ * ring fails instead of waiting, and the caller decides what to do
+ * with the element.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class RingBuffer<E> {
+    private final E[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = (E[]) new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element if there is room, without blocking.
+     *
+     * @param e element to add.
+     * @return true if added, false if the ring is full.
+     */
+    public boolean offer(E e) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[index] = e;
+                    // publish the element to the consumer of this position
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Take the oldest element, without blocking.
+     *
+     * @return element, null if the ring is empty.
+     */
+    public E poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = slots[index];
+                    slots[index] = null;
+                    // free the slot for the producer one lap ahead
+                    sequences.set(index, pos + mask + 1);
+                    return e;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Move up to the given number of elements to a collection.
+     *
+     * @param c collection to add to.
+     * @param maxElements maximum number of elements to move.
+     * @return number of elements moved.
+     */
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int count = 0;
+        while (count < maxElements) {
+            E e = poll();
+            if (e == null) break;
+            c.add(e);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of elements, which may be stale by the time
+     * it returns when other threads are adding or taking.
+     *
+     * @return approximate number of elements.
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, slots.length));
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * Scaling policy interface.
+ * A policy looks at a snapshot of the cluster metrics on every
+ * scaling tick and decides how many VMs each tier should have.
+ * The coordinator scales out towards the targets and refuses to
+ * let a tier shrink below them.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public interface ScalingPolicy {
+    /**
+     * Decide the target size of each tier.
+     *
+     * @param snapshot metrics of the cluster at this tick.
+     * @return target number of VMs for the front and mid tiers.
+     */
+    TierTargets decide(MetricsSnapshot snapshot);
+
+    /**
+     * Create the policy with the given name.
+     * Unknown names fall back to the hysteresis policy.
+     *
+     * @param name name of the policy, "hysteresis" or "threshold".
+     * @return the scaling policy.
+     */
+    static ScalingPolicy forName(String name) {
+        if ("threshold".equalsIgnoreCase(name)) {
+            return new ThresholdScalingPolicy();
+        }
+        return new HysteresisScalingPolicy();
+    }
+}
@@ -5,9 +5,15 @@ import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.server.RMISocketFactory;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Server class serves contains two tiers of servers,
@@ -21,45 +27,157 @@ import java.util.concurrent.LinkedBlockingQueue;
  * @author Ruobing Wang (ruobing2)
  */
 
-public class Server extends UnicastRemoteObject implements CoordinatorRMI {
+public class Server extends UnicastRemoteObject
+		implements CoordinatorRMI, SlaveRMI {
 	// The server library for interacting with the cloud.
 	public static ServerLib SL;
 
 	// The server information.
 	public static ServerInfo serverInfo;
 
-	// The map from VM id to tier number to identify which.
-	public static ConcurrentHashMap<Integer, Integer>
-			VM2TierMap = new ConcurrentHashMap<>();
+	// The registry of which tier every VM serves, on the coordinator.
+	public static TierRegistry tierRegistry = new TierRegistry();
 
-	// The linked list for storing the requests.
-	public static BlockingQueue<Cloud.FrontEndOps.Request>
-			masterQ = new LinkedBlockingQueue<>();
+	// The view of the tier registry this slave VM fetched last.
+	public static volatile TierView tierView;
 
-	// The counters for the number of front and mid-tier servers.
-	public static int frontTierCounter = 0,
-			midTierCounter = 0;
+	// The queue for storing the requests, one lane per request class
+	// and one shard per mid-tier in each lane.
+	public static LanedRequestQueue masterQ =
+			new LanedRequestQueue(r -> SL.drop(r.getRequest()));
 
-	// The previous time for scaling out.
-	public static long prevScaleOutFrontTimeInMS = 0;
+	// The accept and parse stages of a front tier.
+	public static FrontPipeline frontPipeline;
+
+	// The local buffer between parsing and forwarding in a front tier.
+	public static InstrumentedQueue<TimedRequest> frontBuffer =
+			new InstrumentedQueue<>(Constants.CONFIG_FRONT_BUFFER_SIZE);
+
+	// The requests a front tier parsed but has not forwarded yet.
+	public static AtomicInteger frontPending = new AtomicInteger();
+
+	// The requests this front tier forwarded since its last report.
+	public static AtomicInteger frontArrivals = new AtomicInteger();
+
+	// The lock standby VMs wait on for their tier assignment.
+	public static final Object tierAssignmentLock = new Object();
+
+	// The tier this slave VM currently serves, kept fresh by its
+	// tier watcher.
+	public static volatile int assignedTier = Constants.STANDBY_TIER;
+
+	// Whether the coordinator took this slave VM out of the tier
+	// registry, so that it drains and ends.
+	public static volatile boolean drainRequested = false;
+
+	// Whether the front tier forwarder thread of this VM has started.
+	public static boolean frontForwarderStarted = false;
+
+	// The lifecycle of every VM started by the coordinator.
+	public static VmLifecycleTracker lifecycle = new VmLifecycleTracker();
+
+	// The time the lease of every slave VM runs out.
+	public static ConcurrentHashMap<Integer, Long>
+			leaseExpiry = new ConcurrentHashMap<>();
 
 	// The time when master boot.
 	public static long masterTimeBoot = 0;
 
 	// The previous time for mid-tier process, front request process.
-	public static long prevProcessRequestTime = 0,
+	public static volatile long prevProcessRequestTime = 0,
 			prevDealWithFrontRequestTime = 0,
 			prevMasterArrivalTime = 0;
 
+	// The estimate of how long this mid-tier takes per request.
+	public static ServiceTimeEstimator
+			serviceTimeEstimator = new ServiceTimeEstimator();
+
+	// The number of requests accepted by all front tiers since the last
+	// scaling tick, and the forecaster they feed.
+	public static AtomicInteger arrivalCounter = new AtomicInteger();
+	public static ArrivalForecaster forecaster = new ArrivalForecaster(
+			Constants.CONFIG_FORECAST_ALPHA, Constants.CONFIG_FORECAST_BETA);
+
+	// The previous time of the scaling tick on the master.
+	public static long prevScalingTickTime = 0;
+
+	// The M/M/c planner keeping the service time reported by mid-tiers.
+	public static CapacityPlanner capacityPlanner = new CapacityPlanner();
+
+	// The scaling policy chosen at boot and its latest tier targets.
+	public static ScalingPolicy scalingPolicy;
+	public static volatile int plannedFrontTierSize =
+			Constants.MIN_FRONT_TIER_SIZE;
+	public static volatile int plannedMidTierSize =
+			Constants.MIN_MID_TIER_SIZE;
+
 	// Record the number of requests that master received.
 	public static int masterDealRequestCount = 0;
 
-	// The number of requests that master received before scaling out.
-	public static int requestDealThreshHold = 0;
-
 	// To keep track of whether the server has handled the beginning.
 	public static boolean visited = false;
 
+	// The number of mid-tier servers, from the last push or polled batch.
+	public static volatile int midTierServerCount = 0;
+
+	// The planned number of mid-tier servers, from the last push or batch.
+	public static volatile int plannedMidTierCount =
+			Constants.MIN_MID_TIER_SIZE;
+
+	// The rate each front tier admits connections at, set by the
+	// coordinator from the measured capacity of the mid tier.
+	public static volatile double admissionRate = Double.POSITIVE_INFINITY;
+
+	// The pusher of the cluster state on the coordinator.
+	public static ClusterStatePublisher statePublisher =
+			new ClusterStatePublisher();
+
+	// The cluster state last pushed to this slave VM.
+	public static volatile ClusterState clusterState;
+	public static volatile long prevStatePushTime = 0;
+
+	// The last time the serving loops of this slave VM made progress.
+	public static volatile long prevProgressTime = System.currentTimeMillis();
+
+	// The dispatcher the front tier forwarder pushes to mid-tiers with.
+	public static MidTierDispatcher midTierDispatcher;
+
+	// The requests processed and time spent since the last report.
+	public static AtomicInteger processedSinceReport = new AtomicInteger();
+	public static AtomicLong busyMsSinceReport = new AtomicLong();
+	public static long prevServiceReportTime = 0;
+
+	// The database that requests are processed against: the cache of
+	// the coordinator on the master, the near cache on a mid-tier.
+	public static Cloud.DatabaseOps databaseCache;
+
+	// The database cache run by the coordinator.
+	public static DatabaseCache coordinatorCache;
+
+	// The local cache of a mid-tier in front of the coordinator cache.
+	public static NearCache nearCache;
+
+	// The coordinator cache as looked up by a mid-tier.
+	public static Cloud.DatabaseOps remoteDatabaseCache;
+
+	// The near cache counts reported by the mid-tiers.
+	public static AtomicLong nearCacheHits = new AtomicLong();
+	public static AtomicLong nearCacheMisses = new AtomicLong();
+
+	// The worker threads that process requests in a mid-tier.
+	public static MidWorkerPool midWorkerPool;
+
+	// Whether a front tier has pushed requests to this mid-tier.
+	public static volatile boolean receivedDirectPush = false;
+
+	// Whether this VM is draining, and the lock that keeps pushes
+	// from slipping in once it is.
+	public static volatile boolean draining = false;
+	public static final Object drainLock = new Object();
+
+	// The server object exported by this VM.
+	public static Server localServer;
+
 	/**
 	 * Creates and exports a new UnicastRemoteObject object using the
 	 * particular supplied port.
@@ -92,6 +210,7 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 				new ServerInfo(args[0],
 						Integer.parseInt(args[1]), Integer.parseInt(args[2]));
 		SL = new ServerLib(serverInfo.getIp(), serverInfo.getPort());
+		frontPipeline = new FrontPipeline(SL, Server::acceptFrontRequest);
 		bindServer(serverInfo.getIp(),
 				serverInfo.getPort(),
 				serverInfo.getVmId());
@@ -110,48 +229,358 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 		CoordinatorRMI coordinator = lookUpServer(Constants.MASTER_ID);
 		try {
 			assert coordinator != null;
-			if (coordinator.getTierNum(serverInfo.getVmId())
-					== Constants.FRONT_TIER) {
-				processFront(coordinator);
-			} else if (coordinator.getTierNum(serverInfo.getVmId())
-					== Constants.MID_TIER) {
-				processMid(coordinator);
+			startLeaseRenewer(coordinator);
+			try {
+				coordinator.subscribeClusterState(serverInfo.getVmId());
+			} catch (RemoteException ignored) {
+				// the tier watcher polls instead
+			}
+			// a standby VM idles here until it is promoted
+			int tierNum = Constants.STANDBY_TIER;
+			while (tierNum == Constants.STANDBY_TIER) {
+				markProgress();
+				tierNum = coordinator.awaitTierAssignment(
+						serverInfo.getVmId(),
+						Constants.CONFIG_STANDBY_POLL_TIMEOUT);
+			}
+			assignedTier = tierNum;
+			refreshTierView(coordinator);
+			startTierWatcher(coordinator);
+			// the coordinator may move this VM between tiers
+			while (true) {
+				if (tierNum == Constants.FRONT_TIER) {
+					tierNum = processFront(coordinator);
+				} else if (tierNum == Constants.MID_TIER) {
+					tierNum = processMid(coordinator);
+				} else {
+					return;
+				}
+			}
+		} catch (RemoteException ignored) {
+		}
+	}
+
+	/**
+	 * Start the thread that renews the lease of this VM, so that
+	 * the coordinator knows it is alive whatever tier it serves.
+	 * The lease is only renewed while the serving loops make progress,
+	 * so a VM whose loop hangs is reclaimed like a crashed one.
+	 *
+	 * @param coordinator The coordinator server.
+	 */
+	private static void startLeaseRenewer(CoordinatorRMI coordinator) {
+		Thread renewer = new Thread(() -> {
+			while (true) {
+				long staleMs = System.currentTimeMillis() - prevProgressTime;
+				try {
+					if (staleMs <= Constants.CONFIG_PROGRESS_STALE) {
+						coordinator.renewLease(serverInfo.getVmId());
+					}
+				} catch (RemoteException ignored) {
+				}
+				sleepQuietly(Constants.CONFIG_LEASE_RENEW_INTERVAL);
+			}
+		});
+		renewer.setDaemon(true);
+		renewer.start();
+	}
+
+	/**
+	 * Start the thread that watches the tier registry, so that the
+	 * tier loops notice when the coordinator reassigns this VM and
+	 * read the tier sizes locally.
+	 * The registry normally comes with the pushed cluster state, so
+	 * it is only polled, and this VM subscribes to the state again,
+	 * when no push has arrived for a while.
+	 *
+	 * @param coordinator The coordinator server.
+	 */
+	private static void startTierWatcher(CoordinatorRMI coordinator) {
+		Thread watcher = new Thread(() -> {
+			while (true) {
+				sleepQuietly(Constants.CONFIG_TIER_REFRESH);
+				if (isClusterStateStale()) {
+					refreshTierView(coordinator);
+					try {
+						// the coordinator may have dropped this VM
+						coordinator.subscribeClusterState(
+								serverInfo.getVmId());
+					} catch (RemoteException ignored) {
+					}
+				}
+			}
+		});
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Check whether no cluster state was pushed to this VM for a while.
+	 *
+	 * @return true if the pushed state cannot be relied on.
+	 */
+	private static boolean isClusterStateStale() {
+		return System.currentTimeMillis() - prevStatePushTime
+				> Constants.CONFIG_TIER_REFRESH;
+	}
+
+	/**
+	 * Fetch the tier registry if its epoch moved past the view this
+	 * VM holds, and follow the tier it gives this VM.
+	 *
+	 * @param coordinator The coordinator server.
+	 */
+	private static void refreshTierView(CoordinatorRMI coordinator) {
+		long knownEpoch = tierView == null ? -1 : tierView.getEpoch();
+		try {
+			TierView view = coordinator.getTierView(knownEpoch);
+			if (view != null) {
+				applyTierView(view);
 			}
 		} catch (RemoteException ignored) {
 		}
 	}
 
+	/**
+	 * Keep a newer view of the tier registry and follow the tier
+	 * it gives this VM.
+	 *
+	 * @param view The view of the registry.
+	 */
+	private static synchronized void applyTierView(TierView view) {
+		if (tierView != null && tierView.getEpoch() >= view.getEpoch()) {
+			return;
+		}
+		tierView = view;
+		midTierServerCount = view.count(Constants.MID_TIER);
+		int tierNum = view.getTier(serverInfo.getVmId());
+		if (tierNum == -1 && assignedTier != Constants.STANDBY_TIER) {
+			drainRequested = true;
+		}
+		if ((tierNum == Constants.FRONT_TIER
+				|| tierNum == Constants.MID_TIER)
+				&& tierNum != assignedTier) {
+			assignedTier = tierNum;
+		}
+	}
+
 	/**
 	 * The logic of processing the front tier servers.
+	 * The pipeline threads accept, parse and forward the requests,
+	 * and this loop only watches for scale in and reassignment.
 	 *
 	 * @param coordinator The coordinator server.
+	 * @return The tier to serve next, -1 if the VM was scaled in.
 	 */
-	private static void processFront(CoordinatorRMI coordinator) {
+	private static int processFront(CoordinatorRMI coordinator) {
 		SL.register_frontend();
+		startFrontForwarder(coordinator);
+		frontPipeline.start();
+		prevDealWithFrontRequestTime = 0;
 		while (true) {
 			try {
+				// a forwarder stuck on a batch leaves requests pending
+				if (frontPending.get() == 0) {
+					markProgress();
+				}
+				if (assignedTier != Constants.FRONT_TIER) {
+					flushFront();
+					return assignedTier;
+				}
 				long curTime = System.currentTimeMillis();
-				int frontTierServerCount = coordinator.getFrontTierCounter();
+				TierView view = tierView;
+				int frontTierServerCount = view == null
+						? 0 : view.count(Constants.FRONT_TIER);
 				if (scaleInFrontTierDetect(curTime, frontTierServerCount)) {
 					// do scale in job
 					boolean isRemoved =
 							coordinator.removeVMFromMap(serverInfo.getVmId());
 					if (isRemoved) {
-						SL.shutDown();
+						drainFront(coordinator);
+						return -1;
 					}
 				} else {
-					try {
-						Cloud.FrontEndOps.Request r = SL.getNextRequest();
-						coordinator.addRequestToMasterQ(r);
-						prevDealWithFrontRequestTime = curTime;
-					} catch (RemoteException ignored) {
-					}
+					sleepQuietly(Constants.CONFIG_FRONT_SUPERVISE_INTERVAL);
 				}
 			} catch (RemoteException ignored) {
 			}
 		}
 	}
 
+	/**
+	 * Put a parsed request into the front tier buffer,
+	 * or drop it if the forwarder is too far behind.
+	 *
+	 * @param r The request with its accept time.
+	 */
+	private static void acceptFrontRequest(TimedRequest r) {
+		frontPending.incrementAndGet();
+		if (!frontBuffer.offer(r)) {
+			frontPending.decrementAndGet();
+			SL.drop(r.getRequest());
+		}
+		prevDealWithFrontRequestTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Drain a front tier that is scaled in and report drained.
+	 *
+	 * @param coordinator The coordinator server.
+	 * @throws RemoteException The exception when the server fails.
+	 */
+	private static void drainFront(CoordinatorRMI coordinator)
+			throws RemoteException {
+		flushFront();
+		coordinator.reportDrained(serverInfo.getVmId());
+	}
+
+	/**
+	 * Leave the front tier role without losing requests.
+	 * The load balancer stops sending to this VM, the pipeline keeps
+	 * taking the requests already queued at it until none has come in
+	 * for a while, and it returns once all of them are forwarded.
+	 */
+	private static void flushFront() {
+		SL.unregister_frontend();
+		long quietSince = System.currentTimeMillis();
+		while (System.currentTimeMillis() - quietSince
+				< Constants.CONFIG_DRAIN_QUIET_TIME
+				|| !frontPipeline.isIdle() || frontPending.get() > 0) {
+			if (SL.getQueueLength() > 0) {
+				quietSince = System.currentTimeMillis();
+			}
+			sleepQuietly(Constants.CONFIG_FRONT_FLUSH_LATENCY);
+		}
+	}
+
+	/**
+	 * Record that the serving loops of this VM made progress,
+	 * which keeps its lease renewed.
+	 */
+	private static void markProgress() {
+		prevProgressTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Sleep without passing on an interrupt as an exception.
+	 *
+	 * @param millis The time to sleep in milliseconds.
+	 */
+	private static void sleepQuietly(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Start the thread that forwards the front tier buffer
+	 * to the mid-tiers in batches.
+	 *
+	 * @param coordinator The coordinator server.
+	 */
+	private static void startFrontForwarder(CoordinatorRMI coordinator) {
+		if (frontForwarderStarted) return;
+		frontForwarderStarted = true;
+		MidTierDispatcher dispatcher = new MidTierDispatcher(coordinator);
+		midTierDispatcher = dispatcher;
+		Thread forwarder = new Thread(() -> {
+			while (true) {
+				List<TimedRequest> batch = nextFrontBatch();
+				if (batch.isEmpty()) continue;
+				frontArrivals.addAndGet(batch.size());
+				forwardFrontBatch(coordinator, dispatcher, batch);
+				frontPending.addAndGet(-batch.size());
+				markProgress();
+			}
+		});
+		forwarder.setDaemon(true);
+		forwarder.start();
+		startArrivalReporter(coordinator);
+	}
+
+	/**
+	 * Start the thread that reports the arrivals of this front tier
+	 * to the coordinator on a fixed interval, so that rejections are
+	 * reported even while nothing is forwarded.
+	 *
+	 * @param coordinator The coordinator server.
+	 */
+	private static void startArrivalReporter(CoordinatorRMI coordinator) {
+		Thread reporter = new Thread(() -> {
+			int arrivals = 0;
+			while (true) {
+				sleepQuietly(Constants.CONFIG_ARRIVAL_REPORT_INTERVAL);
+				// rejected clients are still demand for the forecaster
+				arrivals += frontArrivals.getAndSet(0)
+						+ frontPipeline.takeRejected()
+						+ frontBuffer.takeRejected();
+				if (arrivals == 0) continue;
+				try {
+					coordinator.reportArrivals(arrivals);
+					arrivals = 0;
+				} catch (RemoteException ignored) {
+				}
+			}
+		});
+		reporter.setDaemon(true);
+		reporter.start();
+	}
+
+	/**
+	 * Forward a batch to the mid-tiers directly and fall back to
+	 * the coordinator for the requests that could not be pushed.
+	 *
+	 * @param coordinator The coordinator server.
+	 * @param dispatcher The dispatcher to the mid-tiers.
+	 * @param batch The batch from the front tier buffer.
+	 */
+	private static void forwardFrontBatch(CoordinatorRMI coordinator,
+										  MidTierDispatcher dispatcher,
+										  List<TimedRequest> batch) {
+		List<TimedRequest> undelivered = dispatcher.dispatch(batch);
+		if (undelivered.isEmpty()) return;
+		try {
+			coordinator.addRequestsToMasterQ(undelivered);
+		} catch (RemoteException e) {
+			for (TimedRequest r : undelivered) {
+				SL.drop(r.getRequest());
+			}
+		}
+	}
+
+	/**
+	 * Collect the next batch from the front tier buffer.
+	 * Waits for the first request, then keeps collecting until the
+	 * batch is full or the flush latency since the first request
+	 * has passed.
+	 *
+	 * @return The next batch, cut short if interrupted, which leaves
+	 * the interrupt flag set for the caller.
+	 */
+	private static List<TimedRequest> nextFrontBatch() {
+		List<TimedRequest> batch = new ArrayList<>();
+		try {
+			batch.add(frontBuffer.take());
+			long deadline = System.currentTimeMillis()
+					+ Constants.CONFIG_FRONT_FLUSH_LATENCY;
+			frontBuffer.drainTo(batch,
+					Constants.CONFIG_FRONT_BATCH_SIZE - batch.size());
+			while (batch.size() < Constants.CONFIG_FRONT_BATCH_SIZE) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) break;
+				TimedRequest r =
+						frontBuffer.poll(remaining, TimeUnit.MILLISECONDS);
+				if (r == null) break;
+				batch.add(r);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return batch;
+	}
+
 	/**
 	 * The logic of processing the master server.
 	 *
@@ -171,31 +600,55 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 	 * The logic of processing the middle tier servers.
 	 *
 	 * @param coordinator The coordinator server.
+	 * @return The tier to serve next, -1 if the VM was scaled in.
 	 */
-	private static void processMid(CoordinatorRMI coordinator) {
+	private static int processMid(CoordinatorRMI coordinator) {
+		prevProcessRequestTime = 0;
+		// accept pushes again if this VM comes back from the front tier
+		synchronized (drainLock) {
+			draining = false;
+		}
+		setUpNearCache(coordinator);
+		if (midWorkerPool == null) {
+			midWorkerPool = new MidWorkerPool(
+					r -> processMidRequests(r, System.currentTimeMillis()));
+		}
 		while (true) {
 			try {
+				// workers stuck on their requests leave no free slots
+				if (midWorkerPool.getFreeSlots() > 0) {
+					markProgress();
+				}
+				if (assignedTier != Constants.MID_TIER) {
+					flushMid();
+					// pushes are refused from now on, so the local queue
+					// stays empty until this VM is a mid-tier again
+					receivedDirectPush = false;
+					return assignedTier;
+				}
+				if (drainRequested) {
+					// the coordinator picked this VM as surplus
+					drainMid(coordinator);
+					return -1;
+				}
 				long curTime = System.currentTimeMillis();
-				int midTierServerCount = coordinator.getMidTierCounter();
 				if (scaleInMidTierDetect(curTime, midTierServerCount)) {
 					boolean isRemoved =
 							coordinator.removeVMFromMap(serverInfo.getVmId());
 					if (isRemoved) {
-						SL.shutDown();
-						System.exit(0);
+						drainMid(coordinator);
+						return -1;
 					}
 				} else {
-					int QLen = coordinator.getMasterQLength();
-					Cloud.FrontEndOps.Request r =
-							coordinator.pollRequestFromMasterQ();
-					if (r != null) {
-						processMidRequests(
-								coordinator,
-								curTime,
-								midTierServerCount,
-								QLen,
-								r
-						);
+					// do not take work that busy workers cannot start on
+					int max = midWorkerPool.awaitFreeSlots(
+							Constants.CONFIG_MID_POLL_TIMEOUT);
+					if (max == 0) continue;
+					List<TimedRequest> requests =
+							pollMidRequests(coordinator, max);
+					if (!requests.isEmpty()) {
+						midWorkerPool.submit(requests);
+						reportServiceStats(coordinator);
 					} else {
 						if (prevProcessRequestTime == 0) {
 							prevProcessRequestTime = curTime;
@@ -208,67 +661,144 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 	}
 
 	/**
-	 * The logic of processing the middle tier servers.
+	 * Poll the next requests for a middle tier server.
+	 * Until front tiers push to this VM directly, it long-polls the
+	 * coordinator. After that it waits on its local queue and only
+	 * asks the coordinator for leftovers when it has room.
 	 *
 	 * @param coordinator The coordinator server.
-	 * @param curTime The current time.
-	 * @param midTierServerCount The number of middle tier servers.
-	 * @param QLen The length of the master queue.
-	 * @param r The request.
+	 * @param max The maximum number of requests to poll.
+	 * @return The requests to process, empty if there were none.
 	 * @throws RemoteException The exception when the server fails.
 	 */
-	private static void processMidRequests(CoordinatorRMI coordinator,
-										   long curTime,
-										   int midTierServerCount,
-										   int QLen,
-										   Cloud.FrontEndOps.Request r)
-			throws RemoteException {
-		updateFastRequests();
-		if (requestNeedDrop()) {
-			SL.drop(r);
-			requestDealThreshHold = 0;
+	private static List<TimedRequest> pollMidRequests(
+			CoordinatorRMI coordinator, int max) throws RemoteException {
+		int vmId = serverInfo.getVmId();
+		List<TimedRequest> requests = new ArrayList<>();
+		RequestBatch batch = null;
+		if (!receivedDirectPush) {
+			batch = coordinator.pollRequestsFromMasterQ(vmId, max,
+					Constants.CONFIG_MID_POLL_TIMEOUT);
 		} else {
-			if (scaleOutMidTierDetect(QLen,
-					midTierServerCount)) {
-				coordinator.coordinatorScaleOut(
-						Constants.MID_TIER);
-				SL.drop(r);
-			} else {
-				SL.processRequest(r);
-				prevProcessRequestTime = curTime;
+			try {
+				requests.addAll(masterQ.poll(vmId, max,
+						Constants.CONFIG_MID_POLL_TIMEOUT));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			// the tier counts come with the pushed state, so only
+			// ask the coordinator when there is room for its leftovers
+			// and the last pushed state says it has some
+			ClusterState state = clusterState;
+			if (requests.size() < max && (state == null
+					|| state.getMasterQLength() > 0
+					|| isClusterStateStale())) {
+				batch = coordinator.pollRequestsFromMasterQ(vmId,
+						max - requests.size());
 			}
 		}
+		if (batch != null) {
+			midTierServerCount = batch.getMidTierCount();
+			plannedMidTierCount = batch.getPlannedMidTierSize();
+			requests.addAll(batch.getRequests());
+		}
+		return requests;
+	}
+
+	/**
+	 * Drain a mid-tier that is scaled in and report drained.
+	 *
+	 * @param coordinator The coordinator server.
+	 * @throws RemoteException The exception when the server fails.
+	 */
+	private static void drainMid(CoordinatorRMI coordinator)
+			throws RemoteException {
+		flushMid();
+		coordinator.reportDrained(serverInfo.getVmId());
+	}
+
+	/**
+	 * Leave the mid-tier role without losing requests.
+	 * It stops pulling from the coordinator and refuses new pushes,
+	 * so front tiers send to the other mid-tiers, then finishes the
+	 * requests already pushed to it.
+	 */
+	private static void flushMid() {
+		synchronized (drainLock) {
+			draining = true;
+		}
+		// the coordinator stops invalidating a VM that leaves the mid tier
+		if (remoteDatabaseCache != null) {
+			databaseCache = remoteDatabaseCache;
+		}
+		midWorkerPool.submit(
+				masterQ.poll(serverInfo.getVmId(), Integer.MAX_VALUE));
+		midWorkerPool.awaitIdle();
 	}
 
 	/**
-	 * Update for fast requests.
+	 * The logic of processing the middle tier servers.
+	 * Scaling out the mid tier is left to the capacity planner
+	 * on the coordinator. Runs on the threads of the worker pool.
+	 *
+	 * @param r The request.
+	 * @param curTime The current time.
 	 */
-	private static void updateFastRequests() {
-		if (isRequestFast()) {
-			requestDealThreshHold++;
+	private static void processMidRequests(TimedRequest r, long curTime) {
+		markProgress();
+		if (requestNeedDrop(r, curTime)) {
+			SL.drop(r.getRequest());
 		} else {
-			requestDealThreshHold = 0;
+			processWithCache(r.getRequest());
+			long doneTime = System.currentTimeMillis();
+			prevProcessRequestTime = doneTime;
+			long elapsed = doneTime - curTime;
+			serviceTimeEstimator.record(r.getRequest().isPurchase, elapsed);
+			midWorkerPool.recordLatency(r.getRequest().isPurchase, elapsed);
+			processedSinceReport.incrementAndGet();
+			busyMsSinceReport.addAndGet(elapsed);
 		}
 	}
 
 	/**
-	 * Check if the request is fast.
+	 * Report the processing time of this mid-tier to the coordinator,
+	 * at most once per report interval.
+	 * The busy time is divided by the pool size, since the workers
+	 * overlap, so the coordinator sees the service time of the VM
+	 * as a whole.
 	 *
-	 * @return Whether the request is fast.
+	 * @param coordinator The coordinator server.
+	 * @throws RemoteException The exception when the server fails.
 	 */
-	private static boolean isRequestFast() {
-		return System.currentTimeMillis() - prevProcessRequestTime
-				< Constants.CONFIG_FAST_REQUEST_RATE;
+	private static void reportServiceStats(CoordinatorRMI coordinator)
+			throws RemoteException {
+		long curTime = System.currentTimeMillis();
+		if (processedSinceReport.get() == 0 || curTime - prevServiceReportTime
+				< Constants.CONFIG_SERVICE_REPORT_INTERVAL) {
+			return;
+		}
+		int processed = processedSinceReport.getAndSet(0);
+		long busyMs = busyMsSinceReport.getAndSet(0);
+		coordinator.reportServiceTime(processed,
+				busyMs / midWorkerPool.getSize());
+		if (nearCache != null) {
+			coordinator.reportCacheStats(nearCache.takeHits(),
+					nearCache.takeMisses());
+		}
+		prevServiceReportTime = curTime;
 	}
 
 	/**
-	 * Check if the request needs to be dropped.
+	 * Check if the request needs to be dropped because it is not
+	 * expected to finish before its client times out.
 	 *
+	 * @param r The request.
+	 * @param curTime The current time.
 	 * @return Whether the request needs to be dropped.
 	 */
-	private static boolean requestNeedDrop() {
-		return requestDealThreshHold >
-				Constants.CONFIG_DROP_FAST_REQUEST_UP_LIMIT;
+	private static boolean requestNeedDrop(TimedRequest r, long curTime) {
+		return r.getTimeLeft(curTime)
+				< serviceTimeEstimator.estimate(r.getRequest().isPurchase);
 	}
 
 	/**
@@ -281,30 +811,22 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 	private static boolean scaleInMidTierDetect(long curTime,
 												int midTierServerCount) {
 		long timeInterval = curTime - prevProcessRequestTime;
+		// leave sooner when the planner wants a smaller tier
+		float noJobTime = midTierServerCount > plannedMidTierCount
+				? Constants.MID_TIER_PLANNED_NO_JOB_TIME
+				: Constants.MID_TIER_NO_JOB_TIME;
 		return prevProcessRequestTime != 0
-				&& timeInterval > Constants.MID_TIER_NO_JOB_TIME
+				&& timeInterval > noJobTime
 				&& midTierServerCount > Constants.MIN_MID_TIER_SIZE;
 	}
 
-	/**
-	 * Detect if the middle tier needs to scale out.
-	 *
-	 * @param QLen The length of the master queue.
-	 * @param midTierServerCount The number of middle tier servers.
-	 * @return Whether the middle tier needs to scale out.
-	 */
-	private static boolean scaleOutMidTierDetect(int QLen,
-												 int midTierServerCount) {
-		return QLen > Constants.CONFIG_MID_SCALE_OUT * midTierServerCount;
-	}
-
 	/**
 	 * Look up the server via the target id.
 	 *
 	 * @param targetId The target id.
 	 * @return The server.
 	 */
-	private static CoordinatorRMI lookUpServer(int targetId) {
+	static CoordinatorRMI lookUpServer(int targetId) {
 		try {
 			return (CoordinatorRMI) Naming.lookup(
 					"//" + serverInfo.getIp() + ":" +
@@ -318,6 +840,67 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 		}
 	}
 
+	/**
+	 * Look up the database cache exported by the coordinator.
+	 *
+	 * @return The cache, null if it is not bound.
+	 */
+	private static Cloud.DatabaseOps lookUpDatabaseCache() {
+		try {
+			return (Cloud.DatabaseOps) Naming.lookup(
+					"//" + serverInfo.getIp() + ":" +
+							serverInfo.getPort() +
+							"/" + Constants.DB_CACHE_NAME
+			);
+		} catch (NotBoundException |
+				MalformedURLException |
+				RemoteException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Put a near cache in front of the coordinator cache and
+	 * subscribe to its invalidations, each time this VM joins the
+	 * mid tier. Without the subscription the mid-tier uses the
+	 * coordinator cache directly.
+	 *
+	 * @param coordinator The coordinator server.
+	 */
+	private static void setUpNearCache(CoordinatorRMI coordinator) {
+		if (remoteDatabaseCache == null) {
+			remoteDatabaseCache = lookUpDatabaseCache();
+		}
+		if (remoteDatabaseCache == null) return;
+		if (nearCache == null) {
+			nearCache = new NearCache(remoteDatabaseCache,
+					Constants.CONFIG_NEAR_CACHE_SIZE,
+					Constants.CONFIG_NEAR_CACHE_TTL);
+		}
+		try {
+			coordinator.subscribeInvalidations(serverInfo.getVmId());
+			// invalidations sent while this VM was away were missed
+			nearCache.clear();
+			databaseCache = nearCache;
+		} catch (RemoteException e) {
+			databaseCache = remoteDatabaseCache;
+		}
+	}
+
+	/**
+	 * Process a request against the database cache,
+	 * or against the database if there is no cache.
+	 *
+	 * @param r The request.
+	 */
+	private static void processWithCache(Cloud.FrontEndOps.Request r) {
+		if (databaseCache != null) {
+			SL.processRequest(r, databaseCache);
+		} else {
+			SL.processRequest(r);
+		}
+	}
+
 	/**
 	 * The logic of processing the master server.
 	 */
@@ -325,64 +908,269 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 		// The Master server processes:
 		// itself should be a frontend
 		SL.register_frontend();
-		frontTierCounter++;
-		VM2TierMap.put(serverInfo.getVmId(), Constants.FRONT_TIER);
+		tierRegistry.register(serverInfo.getVmId(), Constants.FRONT_TIER);
+		lifecycle.running(serverInfo.getVmId(), Constants.FRONT_TIER);
+		startFrontForwarder(localServer);
+		bindDatabaseCache();
 		// play as a coordinator
 		// add servers as a front tier and a mid tier.
 		scaleOut(Constants.MID_TIER);
 		scaleOut(Constants.FRONT_TIER);
 		masterDealRequestCount = 0;
 		masterTimeBoot = System.currentTimeMillis();
-		while (true) {
-			if (SL.getStatusVM(Constants.FIRST_EXTRA_VM_ID)
-					.equals(Cloud.CloudOps.VMStatus.Booting)) {
-				dealWithBeginning();
-			} else {
-				int QLen = SL.getQueueLength();
-				Cloud.FrontEndOps.Request r = SL.getNextRequest();
-				masterQ.add(r);
-				if (prevScaleOutFrontTimeInMS == 0)
-					prevScaleOutFrontTimeInMS = System.currentTimeMillis();
-				if (scaleOutFrontTierDetect(QLen * frontTierCounter,
-						frontTierCounter)) {
-					scaleOut(Constants.FRONT_TIER);
-					prevScaleOutFrontTimeInMS = System.currentTimeMillis();
-				}
-			}
+		startScalingTicker();
+		startStatePusher();
+		while (SL.getStatusVM(Constants.FIRST_EXTRA_VM_ID)
+				.equals(Cloud.CloudOps.VMStatus.Booting)) {
+			dealWithBeginning();
+		}
+		// from now on the pipeline threads serve the master as a front tier
+		frontPipeline.start();
+		try {
+			frontPipeline.join();
+		} catch (InterruptedException ignored) {
 		}
 	}
 
 	/**
-	 * Deal when the server just start.
+	 * Start the thread that runs the scaling tick on the master.
 	 */
-	private static void dealWithBeginning() {
-		// drop or process requests
-		long timeInterval = System.currentTimeMillis() - masterTimeBoot;
-		if (SL.getQueueLength() > 1 && !visited) {
-			long arrivalRate = timeInterval / SL.getQueueLength();
-			if (arrivalRate < Constants.CONFIG_ARRIVAL_RATE_SCALE_OUT) {
-				for (int i = 0;
-					 i < Constants.CONFIG_MASTER_BOOT_FRONT_END; i++) {
-					scaleOut(Constants.FRONT_TIER);
-				}
-				for (int i = 0;
-					 i < Constants.CONFIG_MASTER_BOOT_MID_END; i++) {
-					scaleOut(Constants.MID_TIER);
+	private static void startScalingTicker() {
+		scalingPolicy = createScalingPolicy();
+		prevScalingTickTime = System.currentTimeMillis();
+		Thread ticker = new Thread(() -> {
+			while (true) {
+				try {
+					Thread.sleep(Constants.CONFIG_SCALING_TICK);
+				} catch (InterruptedException e) {
+					return;
 				}
+				scalingTick();
 			}
-			visited = true;
-		}
-		if (masterDealRequestCount
-				< Constants.CONFIG_MASTER_DEAL_REQUEST_COUNT_UP_LIMIT) {
-			Cloud.FrontEndOps.Request r = SL.getNextRequest();
-			SL.processRequest(r);
-			masterDealRequestCount++;
-			if (needDropWhenMasterBoot(prevMasterArrivalTime)) {
+		});
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	/**
+	 * Start the thread that pushes the cluster state to the slaves.
+	 */
+	private static void startStatePusher() {
+		Thread pusher = new Thread(() -> {
+			while (true) {
+				sleepQuietly(Constants.CONFIG_STATE_PUSH_INTERVAL);
+				statePublisher.publish(tierRegistry, readyMidTierIds(),
+						masterQ.size(), plannedMidTierSize, admissionRate);
+			}
+		});
+		pusher.setDaemon(true);
+		pusher.start();
+	}
+
+	/**
+	 * Create the scaling policy named by the scaling.policy system
+	 * property or the SCALING_POLICY environment variable, so that
+	 * policies can be compared without rebuilding.
+	 *
+	 * @return The scaling policy.
+	 */
+	private static ScalingPolicy createScalingPolicy() {
+		String name = System.getenv("SCALING_POLICY");
+		if (name == null) {
+			name = Constants.CONFIG_SCALING_POLICY;
+		}
+		return ScalingPolicy.forName(
+				System.getProperty("scaling.policy", name));
+	}
+
+	/**
+	 * Feed the arrivals of the last tick into the forecaster, let the
+	 * scaling policy decide the tier targets from a metrics snapshot
+	 * and scale out towards them.
+	 */
+	private static void scalingTick() {
+		long curTime = System.currentTimeMillis();
+		double seconds = (curTime - prevScalingTickTime) / 1000.0;
+		prevScalingTickTime = curTime;
+		if (seconds <= 0) return;
+		updateBootingVMs();
+		reclaimExpiredLeases(curTime);
+		forecaster.update(arrivalCounter.getAndSet(0) / seconds);
+		MetricsSnapshot snapshot = new MetricsSnapshot(
+				curTime,
+				forecaster.getLevel(),
+				forecaster.forecast(Constants.CONFIG_FORECAST_HORIZON),
+				capacityPlanner.getServiceTime(),
+				SL.getQueueLength() + frontPipeline.getBacklog(),
+				tierRegistry.count(Constants.FRONT_TIER),
+				tierRegistry.count(Constants.MID_TIER),
+				lifecycle.count(Constants.FRONT_TIER, VmState.BOOTING),
+				lifecycle.count(Constants.MID_TIER, VmState.BOOTING)
+		);
+		TierTargets targets = scalingPolicy.decide(snapshot);
+		plannedFrontTierSize = targets.getFrontTarget();
+		plannedMidTierSize = targets.getMidTarget();
+		scaleOutTo(Constants.MID_TIER, plannedMidTierSize);
+		scaleOutTo(Constants.FRONT_TIER, plannedFrontTierSize);
+		refillStandbyPool();
+		drainSurplusMids();
+		admissionRate = planAdmissionRate();
+		frontPipeline.setAdmissionRate(admissionRate);
+	}
+
+	/**
+	 * Size the admission rate of each front tier from what the running
+	 * mid-tiers can serve, with some headroom for the mid-tiers that
+	 * are on their way. Admission stays off while no mid-tier runs
+	 * and while the smoothed arrival rate is within what the mid-tiers
+	 * can serve, so that clients are only turned away under overload.
+	 * Rejected clients still count as arrivals, so admission stays on
+	 * until the demand itself goes down.
+	 *
+	 * @return connections per second for each front tier.
+	 */
+	private static double planAdmissionRate() {
+		int midCount = readyMidTierIds().size();
+		int frontCount = tierRegistry.count(Constants.FRONT_TIER)
+				- lifecycle.count(Constants.FRONT_TIER, VmState.BOOTING);
+		if (midCount == 0) return Double.POSITIVE_INFINITY;
+		double capacity = midCount * 1000.0 / capacityPlanner.getServiceTime();
+		if (forecaster.getLevel() <= capacity) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return capacity * Constants.CONFIG_ADMISSION_HEADROOM
+				/ Math.max(1, frontCount);
+	}
+
+	/**
+	 * Drain the running mid-tiers above the planned mid tier size.
+	 * Busy mid-tiers never stay idle long enough to leave on their
+	 * own, so the coordinator picks the surplus itself. A drained VM
+	 * drops out of the pushed mid-tier list, so the front tiers stop
+	 * dispatching to it, and it finishes its work once the pushed
+	 * registry no longer lists it.
+	 */
+	private static void drainSurplusMids() {
+		List<Integer> ids = readyMidTierIds();
+		// the newest VMs go first
+		ids.sort(Collections.reverseOrder());
+		for (int vmId : ids) {
+			int runningCount = tierRegistry.count(Constants.MID_TIER)
+					- lifecycle.count(Constants.MID_TIER, VmState.BOOTING);
+			if (runningCount <= plannedMidTierSize) return;
+			if (lifecycle.getState(vmId) == VmState.RUNNING) {
+				drainVM(vmId);
+			}
+		}
+	}
+
+	/**
+	 * Boot standby VMs until the pool is back to its configured size.
+	 */
+	private static void refillStandbyPool() {
+		for (int i = tierRegistry.count(Constants.STANDBY_TIER);
+			 i < Constants.CONFIG_STANDBY_POOL_SIZE; i++) {
+			startVM(Constants.STANDBY_TIER);
+		}
+	}
+
+	/**
+	 * End the VMs whose leases ran out and start replacements,
+	 * so that the tier counters only count VMs that are alive.
+	 * A VM only holds a lease after its first renewal, so booting
+	 * VMs are left alone.
+	 *
+	 * @param curTime The current time.
+	 */
+	private static void reclaimExpiredLeases(long curTime) {
+		for (Map.Entry<Integer, Long> entry : leaseExpiry.entrySet()) {
+			if (entry.getValue() > curTime) continue;
+			int vmId = entry.getKey();
+			leaseExpiry.remove(vmId);
+			if (lifecycle.getState(vmId) == VmState.ENDED) continue;
+			int tierNum = evictVM(vmId);
+			SL.endVM(vmId);
+			if (tierNum == Constants.FRONT_TIER
+					|| tierNum == Constants.MID_TIER) {
+				scaleOut(tierNum);
+			}
+		}
+	}
+
+	/**
+	 * Take a dead VM out of the tier registry and its shards.
+	 *
+	 * @param vmId VM id.
+	 * @return The tier the VM was in, -1 if it was in none.
+	 */
+	private static int evictVM(int vmId) {
+		int tierNum = tierRegistry.remove(vmId);
+		if (tierNum == Constants.MID_TIER) {
+			leaveMidTier(vmId);
+		}
+		lifecycle.transition(vmId, VmState.ENDED);
+		return tierNum;
+	}
+
+	/**
+	 * Mark the booting VMs the cloud reports as running.
+	 */
+	private static void updateBootingVMs() {
+		for (int vmId : lifecycle.idsIn(VmState.BOOTING)) {
+			if (SL.getStatusVM(vmId) == Cloud.CloudOps.VMStatus.Running) {
+				lifecycle.transition(vmId, VmState.RUNNING);
+			}
+		}
+	}
+
+	/**
+	 * Scale out a tier towards the target size, a few VMs per tick.
+	 *
+	 * @param tierNum The tier number.
+	 * @param target The target number of servers in the tier.
+	 */
+	private static void scaleOutTo(int tierNum, int target) {
+		int count = Math.min(target - tierRegistry.count(tierNum),
+				Constants.CONFIG_MAX_SCALE_OUT_STEP);
+		for (int i = 0; i < count; i++) {
+			scaleOut(tierNum);
+		}
+	}
+
+	/**
+	 * Deal when the server just start.
+	 */
+	private static void dealWithBeginning() {
+		// drop or process requests
+		long timeInterval = System.currentTimeMillis() - masterTimeBoot;
+		if (SL.getQueueLength() > 1 && !visited) {
+			long arrivalRate = timeInterval / SL.getQueueLength();
+			if (arrivalRate < Constants.CONFIG_ARRIVAL_RATE_SCALE_OUT) {
+				for (int i = 0;
+					 i < Constants.CONFIG_MASTER_BOOT_FRONT_END; i++) {
+					scaleOut(Constants.FRONT_TIER);
+				}
+				for (int i = 0;
+					 i < Constants.CONFIG_MASTER_BOOT_MID_END; i++) {
+					scaleOut(Constants.MID_TIER);
+				}
+			}
+			visited = true;
+		}
+		if (masterDealRequestCount
+				< Constants.CONFIG_MASTER_DEAL_REQUEST_COUNT_UP_LIMIT) {
+			Cloud.FrontEndOps.Request r = SL.getNextRequest();
+			arrivalCounter.incrementAndGet();
+			processWithCache(r);
+			masterDealRequestCount++;
+			if (needDropWhenMasterBoot(prevMasterArrivalTime)) {
 				SL.dropHead();
+				arrivalCounter.incrementAndGet();
 			}
 			prevMasterArrivalTime = System.currentTimeMillis();
 		} else {
 			SL.dropHead();
+			arrivalCounter.incrementAndGet();
 		}
 	}
 
@@ -399,31 +1187,145 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 	}
 
 	/**
-	 * Detect if the front tier needs to scale out.
+	 * Scale out the server.
+	 * A running VM the other tier has to spare is moved over first,
+	 * then a standby VM is promoted, and only otherwise a new VM is
+	 * started for the tier.
 	 *
-	 * @param QLen The length of the master queue.
-	 * @param frontTierCounter The number of front tier servers.
-	 * @return Whether the front tier needs to scale out.
+	 * @param tierNum The tier number.
 	 */
-	private static boolean scaleOutFrontTierDetect(int QLen,
-												   int frontTierCounter) {
-		return System.currentTimeMillis() - prevScaleOutFrontTimeInMS
-				> Constants.CONFIG_COOL_DOWN_FRONT
-				&& QLen > Constants.CONFIG_FRONT_SCALE_OUT * frontTierCounter;
+	private static void scaleOut(int tierNum) {
+		if (reassignSurplus(tierNum)) return;
+		if (!promoteStandby(tierNum)) {
+			startVM(tierNum);
+		}
 	}
 
 	/**
-	 * Scale out the server.
+	 * Move a running VM from the other tier if that tier is larger
+	 * than the scaling policy wants.
 	 *
-	 * @param tierNum The tier number.
+	 * @param tierNum The tier number that needs a VM.
+	 * @return true if a VM was moved, false otherwise.
 	 */
-	private static void scaleOut(int tierNum) {
-		int vmId = SL.startVM();
-		VM2TierMap.put(vmId, tierNum);
+	private static boolean reassignSurplus(int tierNum) {
+		int otherTier;
+		boolean hasSurplus;
 		if (tierNum == Constants.FRONT_TIER) {
-			frontTierCounter++;
+			otherTier = Constants.MID_TIER;
+			hasSurplus = tierRegistry.count(otherTier) > plannedMidTierSize;
 		} else if (tierNum == Constants.MID_TIER) {
-			midTierCounter++;
+			otherTier = Constants.FRONT_TIER;
+			hasSurplus = tierRegistry.count(otherTier) > plannedFrontTierSize;
+		} else {
+			return false;
+		}
+		if (!hasSurplus) return false;
+		for (int vmId : tierRegistry.idsIn(otherTier)) {
+			if (lifecycle.getState(vmId) == VmState.RUNNING
+					&& moveTier(vmId, tierNum)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Move a running slave VM to the other tier, updating the tier
+	 * registry and the shards.
+	 *
+	 * @param vmId VM id.
+	 * @param tierNum The tier number to move the VM to.
+	 * @return true if the VM was moved, false otherwise.
+	 */
+	private static boolean moveTier(int vmId, int tierNum) {
+		if (vmId == Constants.MASTER_ID
+				|| tierNum != Constants.FRONT_TIER
+				&& tierNum != Constants.MID_TIER) {
+			return false;
+		}
+		int oldTier = tierNum == Constants.FRONT_TIER
+				? Constants.MID_TIER : Constants.FRONT_TIER;
+		if (!tierRegistry.replace(vmId, oldTier, tierNum)) {
+			return false;
+		}
+		if (oldTier == Constants.MID_TIER) {
+			leaveMidTier(vmId);
+		}
+		lifecycle.assign(vmId, tierNum);
+		return true;
+	}
+
+	/**
+	 * Take a VM that left the mid tier off its shards and off the
+	 * invalidations of the database cache.
+	 *
+	 * @param vmId VM id.
+	 */
+	private static void leaveMidTier(int vmId) {
+		masterQ.removeShard(vmId);
+		if (coordinatorCache != null) {
+			coordinatorCache.unsubscribe(vmId);
+		}
+	}
+
+	/**
+	 * Start a new VM for a tier.
+	 *
+	 * @param tierNum The tier number.
+	 */
+	private static void startVM(int tierNum) {
+		long requestedAt = System.currentTimeMillis();
+		int vmId = SL.startVM();
+		lifecycle.booting(vmId, tierNum, requestedAt);
+		tierRegistry.register(vmId, tierNum);
+	}
+
+	/**
+	 * Promote a standby VM to a tier, preferring one that has
+	 * finished booting.
+	 *
+	 * @param tierNum The tier number.
+	 * @return true if a standby VM was promoted, false otherwise.
+	 */
+	private static boolean promoteStandby(int tierNum) {
+		List<Integer> standbys = new ArrayList<>();
+		for (int vmId : tierRegistry.idsIn(Constants.STANDBY_TIER)) {
+			if (lifecycle.getState(vmId) == VmState.RUNNING) {
+				standbys.add(0, vmId);
+			} else {
+				standbys.add(vmId);
+			}
+		}
+		for (int vmId : standbys) {
+			// another thread may have promoted it meanwhile
+			if (tierRegistry.replace(vmId, Constants.STANDBY_TIER, tierNum)) {
+				lifecycle.assign(vmId, tierNum);
+				synchronized (tierAssignmentLock) {
+					tierAssignmentLock.notifyAll();
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create the database cache on the master and bind it,
+	 * so that mid-tiers can look it up.
+	 */
+	private static void bindDatabaseCache() {
+		try {
+			DatabaseCache cache = new DatabaseCache(SL.getDB(),
+					Constants.CONFIG_DB_CACHE_SIZE);
+			Naming.bind("//" + serverInfo.getIp() + ":" +
+					serverInfo.getPort() +
+					"/" + Constants.DB_CACHE_NAME, cache);
+			coordinatorCache = cache;
+			databaseCache = cache;
+		} catch (RemoteException |
+				MalformedURLException |
+				AlreadyBoundException ignored) {
 		}
 	}
 
@@ -437,6 +1339,7 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 	private static void bindServer(String ip, int port, int vmId) {
 		try {
 			Server server = new Server();
+			localServer = server;
 			Naming.bind("//" + ip + ":" +
 					port +
 					"/" + vmId, server);
@@ -454,18 +1357,43 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 	 * @throws RemoteException if RMI error occurs.
 	 */
 	@Override
-	public synchronized boolean removeVMFromMap(int vmId)
-			throws RemoteException {
-		if (VM2TierMap.containsKey(vmId)) {
-			int targetTier = VM2TierMap.remove(vmId);
-			if (targetTier == Constants.FRONT_TIER) {
-				frontTierCounter--;
-			} else if (targetTier == Constants.MID_TIER) {
-				midTierCounter--;
-			}
-			return true;
+	public boolean removeVMFromMap(int vmId) throws RemoteException {
+		return drainVM(vmId);
+	}
+
+	/**
+	 * Take a VM out of the tier registry and mark it draining, unless
+	 * its tier would drop below the planned size.
+	 *
+	 * @param vmId VM id.
+	 * @return true if the VM is draining, false otherwise.
+	 */
+	private static boolean drainVM(int vmId) {
+		// the scaling policy still needs the VMs up to its planned sizes
+		int[] minCounts = new int[Constants.STANDBY_TIER + 1];
+		minCounts[Constants.FRONT_TIER] = plannedFrontTierSize;
+		minCounts[Constants.MID_TIER] = plannedMidTierSize;
+		int tierNum = tierRegistry.removeAboveMin(vmId, minCounts);
+		if (tierNum == -1) return false;
+		if (tierNum == Constants.MID_TIER) {
+			leaveMidTier(vmId);
 		}
-		return false;
+		lifecycle.transition(vmId, VmState.DRAINING);
+		return true;
+	}
+
+	/**
+	 * End a draining VM once it reports that it has finished its work.
+	 *
+	 * @param vmId VM id.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public void reportDrained(int vmId) throws RemoteException {
+		if (lifecycle.getState(vmId) != VmState.DRAINING) return;
+		lifecycle.transition(vmId, VmState.ENDED);
+		leaseExpiry.remove(vmId);
+		SL.endVM(vmId);
 	}
 
 	/**
@@ -477,7 +1405,52 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 	 */
 	@Override
 	public int getTierNum(int vmId) throws RemoteException {
-		return VM2TierMap.getOrDefault(vmId, -1);
+		// a slave asks for its tier as soon as it is up
+		lifecycle.transition(vmId, VmState.RUNNING);
+		return tierRegistry.getTier(vmId);
+	}
+
+	/**
+	 * Move a running slave VM to the other tier.
+	 *
+	 * @param vmId VM id.
+	 * @param tierNum tier number to move the VM to.
+	 * @return true if the VM was moved, false otherwise.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public boolean reassignTier(int vmId, int tierNum) throws RemoteException {
+		return moveTier(vmId, tierNum);
+	}
+
+	/**
+	 * Wait until a standby VM is promoted to a tier.
+	 *
+	 * @param vmId VM id.
+	 * @param timeoutMs maximum time to wait in milliseconds.
+	 * @return tier number, still standby if the timeout expired.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public int awaitTierAssignment(int vmId, long timeoutMs)
+			throws RemoteException {
+		lifecycle.transition(vmId, VmState.RUNNING);
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		synchronized (tierAssignmentLock) {
+			int tierNum = tierRegistry.getTier(vmId);
+			long remaining = deadline - System.currentTimeMillis();
+			while (tierNum == Constants.STANDBY_TIER && remaining > 0) {
+				try {
+					tierAssignmentLock.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				tierNum = tierRegistry.getTier(vmId);
+				remaining = deadline - System.currentTimeMillis();
+			}
+			return tierNum;
+		}
 	}
 
 	/**
@@ -489,7 +1462,35 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 	@Override
 	public void addRequestToMasterQ(Cloud.FrontEndOps.Request request)
 			throws RemoteException {
-		masterQ.add(request);
+		masterQ.add(new TimedRequest(request));
+	}
+
+	/**
+	 * Add a batch of requests to master queue.
+	 * On a mid-tier VM this is the local queue that front tiers
+	 * push requests to directly. A VM that is draining or no longer
+	 * serves the mid tier refuses them, since nothing would poll them.
+	 *
+	 * @param requests requests from load balancer with arrival times.
+	 * @return length of master queue after adding.
+	 * @throws RemoteException if RMI error occurs or the VM refuses.
+	 */
+	@Override
+	public int addRequestsToMasterQ(List<TimedRequest> requests)
+			throws RemoteException {
+		if (serverInfo.getVmId() == Constants.MASTER_ID) {
+			masterQ.addAll(requests);
+			return masterQ.size();
+		}
+		synchronized (drainLock) {
+			if (draining || assignedTier != Constants.MID_TIER) {
+				// the front tier hands them to the coordinator instead
+				throw new RemoteException("VM is not taking mid-tier work");
+			}
+			receivedDirectPush = true;
+			masterQ.addAll(requests);
+		}
+		return masterQ.size();
 	}
 
 	/**
@@ -501,7 +1502,90 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 	@Override
 	public Cloud.FrontEndOps.Request pollRequestFromMasterQ()
 			throws RemoteException {
-		return masterQ.poll();
+		TimedRequest r = masterQ.poll();
+		return r == null ? null : r.getRequest();
+	}
+
+	/**
+	 * Poll a batch of requests from master queue in one round trip.
+	 *
+	 * @param vmId VM id of the polling mid-tier, used for its shard.
+	 * @param max maximum number of requests in the batch.
+	 * @return batch of requests with the mid tier sizes.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public RequestBatch pollRequestsFromMasterQ(int vmId, int max)
+			throws RemoteException {
+		ensureShard(vmId);
+		List<TimedRequest> requests = shedExpired(masterQ.poll(vmId, max));
+		return new RequestBatch(requests,
+				tierRegistry.count(Constants.MID_TIER), plannedMidTierSize);
+	}
+
+	/**
+	 * Long-poll a batch of requests from master queue.
+	 * The timeout is kept short so that idle mid-tiers still come back
+	 * often enough for their scale in detection.
+	 *
+	 * @param vmId VM id of the polling mid-tier, used for its shard.
+	 * @param max maximum number of requests in the batch.
+	 * @param timeoutMs maximum time to wait in milliseconds.
+	 * @return batch of requests, empty if the timeout expired.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public RequestBatch pollRequestsFromMasterQ(int vmId, int max,
+												long timeoutMs)
+			throws RemoteException {
+		ensureShard(vmId);
+		List<TimedRequest> requests = new ArrayList<>();
+		try {
+			requests = shedExpired(masterQ.poll(vmId, max, timeoutMs));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return new RequestBatch(requests,
+				tierRegistry.count(Constants.MID_TIER), plannedMidTierSize);
+	}
+
+	/**
+	 * Drop the requests whose clients have already timed out
+	 * instead of shipping them to a mid-tier.
+	 *
+	 * @param requests requests polled from master queue.
+	 * @return requests that can still succeed.
+	 */
+	private static List<TimedRequest> shedExpired(List<TimedRequest> requests) {
+		long curTime = System.currentTimeMillis();
+		List<TimedRequest> alive = new ArrayList<>(requests.size());
+		for (TimedRequest r : requests) {
+			if (r.getTimeLeft(curTime) > 0) {
+				alive.add(r);
+			} else {
+				SL.drop(r.getRequest());
+			}
+		}
+		return alive;
+	}
+
+	/**
+	 * Give a running mid-tier its own shard of master queue
+	 * the first time it polls.
+	 *
+	 * @param vmId VM id of the polling mid-tier.
+	 */
+	private void ensureShard(int vmId) {
+		if (masterQ.hasShard(vmId)
+				|| tierRegistry.getTier(vmId) != Constants.MID_TIER) {
+			return;
+		}
+		masterQ.addShard(vmId);
+		// the VM may have left the mid tier after the check, and then
+		// its remover may have missed the shard
+		if (tierRegistry.getTier(vmId) != Constants.MID_TIER) {
+			masterQ.removeShard(vmId);
+		}
 	}
 
 	/**
@@ -523,7 +1607,7 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 	 */
 	@Override
 	public int getFrontTierCounter() throws RemoteException {
-		return frontTierCounter;
+		return tierRegistry.count(Constants.FRONT_TIER);
 	}
 
 	/**
@@ -534,7 +1618,202 @@ public class Server extends UnicastRemoteObject implements CoordinatorRMI {
 	 */
 	@Override
 	public int getMidTierCounter() throws RemoteException {
-		return midTierCounter;
+		return tierRegistry.count(Constants.MID_TIER);
+	}
+
+	/**
+	 * Get the ids of mid-tier VMs that are running and pulling work.
+	 *
+	 * @return ids of running mid-tier VMs.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public List<Integer> getMidTierVMIds() throws RemoteException {
+		return readyMidTierIds();
+	}
+
+	/**
+	 * Get the ids of mid-tier VMs that have polled for their shard,
+	 * which tells that they are up and pulling work.
+	 *
+	 * @return ids of running mid-tier VMs.
+	 */
+	private static List<Integer> readyMidTierIds() {
+		List<Integer> ids = new ArrayList<>();
+		for (int vmId : tierRegistry.idsIn(Constants.MID_TIER)) {
+			if (masterQ.hasShard(vmId)) {
+				ids.add(vmId);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Report the processing time of a mid-tier to the capacity planner.
+	 *
+	 * @param count number of requests processed.
+	 * @param busyMs total time spent processing them in milliseconds.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public void reportServiceTime(int count, long busyMs)
+			throws RemoteException {
+		capacityPlanner.recordService(count, busyMs);
+	}
+
+	/**
+	 * Report the number of requests a front tier accepted.
+	 *
+	 * @param count number of accepted requests.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public void reportArrivals(int count) throws RemoteException {
+		arrivalCounter.addAndGet(count);
+	}
+
+	/**
+	 * Get the lifecycle table of all VMs.
+	 *
+	 * @return map from VM id to its lifecycle record.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public HashMap<Integer, VmRecord> getVmLifecycle() throws RemoteException {
+		return lifecycle.snapshot();
+	}
+
+	/**
+	 * Subscribe a VM to the invalidations of the database cache.
+	 *
+	 * @param vmId VM id.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public void subscribeInvalidations(int vmId) throws RemoteException {
+		if (coordinatorCache == null) {
+			throw new RemoteException("no database cache");
+		}
+		SlaveRMI slave = (SlaveRMI) lookUpServer(vmId);
+		if (slave == null) {
+			throw new RemoteException("VM " + vmId + " is not bound");
+		}
+		coordinatorCache.subscribe(vmId, slave);
+	}
+
+	/**
+	 * Add the near cache counts reported by a mid-tier.
+	 *
+	 * @param hits number of reads served by the near cache.
+	 * @param misses number of reads sent to the coordinator cache.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public void reportCacheStats(long hits, long misses)
+			throws RemoteException {
+		nearCacheHits.addAndGet(hits);
+		nearCacheMisses.addAndGet(misses);
+	}
+
+	/**
+	 * Get the hit and miss counts of both database cache levels.
+	 *
+	 * @return counts of both cache levels.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public CacheStats getCacheStats() throws RemoteException {
+		long coordinatorHits = 0;
+		long coordinatorMisses = 0;
+		if (coordinatorCache != null) {
+			coordinatorHits = coordinatorCache.getHits();
+			coordinatorMisses = coordinatorCache.getMisses();
+		}
+		return new CacheStats(nearCacheHits.get(), nearCacheMisses.get(),
+				coordinatorHits, coordinatorMisses);
+	}
+
+	/**
+	 * Renew the lease of a slave VM.
+	 * A VM that has already been ended gets no new lease.
+	 *
+	 * @param vmId VM id.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public void renewLease(int vmId) throws RemoteException {
+		if (lifecycle.getState(vmId) == VmState.ENDED) return;
+		leaseExpiry.put(vmId, System.currentTimeMillis()
+				+ Constants.CONFIG_LEASE_DURATION);
+	}
+
+	/**
+	 * Get a view of the tier registry if it changed since a known epoch.
+	 *
+	 * @param knownEpoch epoch of the view the caller holds, -1 if none.
+	 * @return view of the registry, null if it has not changed.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public TierView getTierView(long knownEpoch) throws RemoteException {
+		if (tierRegistry.getEpoch() == knownEpoch) return null;
+		return tierRegistry.view();
+	}
+
+	/**
+	 * Subscribe a VM to the cluster state the coordinator pushes.
+	 *
+	 * @param vmId VM id.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public void subscribeClusterState(int vmId) throws RemoteException {
+		SlaveRMI slave = (SlaveRMI) lookUpServer(vmId);
+		if (slave == null) {
+			throw new RemoteException("VM " + vmId + " is not bound");
+		}
+		statePublisher.subscribe(vmId, slave);
+	}
+
+	/**
+	 * Keep the cluster state pushed by the coordinator, so that the
+	 * loops of this VM read it without a remote call.
+	 *
+	 * @param state tier registry, queue length, scaling targets and
+	 *              directives.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public void pushClusterState(ClusterState state) throws RemoteException {
+		ClusterState prevState = clusterState;
+		if (prevState != null
+				&& prevState.getSequence() >= state.getSequence()) {
+			return;
+		}
+		clusterState = state;
+		prevStatePushTime = System.currentTimeMillis();
+		if (state.getTierView() != null) {
+			applyTierView(state.getTierView());
+		}
+		plannedMidTierCount = state.getPlannedMidTierSize();
+		frontPipeline.setAdmissionRate(state.getAdmissionRate());
+		if (midTierDispatcher != null) {
+			midTierDispatcher.update(state.getMidTierIds());
+		}
+	}
+
+	/**
+	 * Invalidate a key in the near cache of this mid-tier.
+	 *
+	 * @param key key that was changed in the database.
+	 * @param version version of the key after the change.
+	 * @throws RemoteException if RMI error occurs.
+	 */
+	@Override
+	public void invalidate(String key, long version) throws RemoteException {
+		if (nearCache != null) {
+			nearCache.invalidate(key, version);
+		}
 	}
 
 	/**
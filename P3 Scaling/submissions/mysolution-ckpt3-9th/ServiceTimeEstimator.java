@@ -0,0 +1,45 @@
+/**
+ * This class keeps an online estimate of how long a mid-tier takes
+ * to process a request, separately for browse and purchase requests
+ * since purchases run a much slower database transaction.
+ * Each estimate is an exponentially weighted moving average.
+ * An estimate is capped below the client timeout of its class, so
+ * that fresh requests are still processed and keep feeding samples
+ * even after a slow spell, instead of the whole class being dropped.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class ServiceTimeEstimator {
+    private double browseTime = Constants.CONFIG_INITIAL_SERVICE_TIME;
+    private double purchaseTime = Constants.CONFIG_INITIAL_SERVICE_TIME;
+
+    /**
+     * Record the measured processing time of a request.
+     *
+     * @param isPurchase whether the request was a purchase.
+     * @param elapsedMs measured processing time in milliseconds.
+     */
+    public synchronized void record(boolean isPurchase, long elapsedMs) {
+        double alpha = Constants.CONFIG_SERVICE_TIME_ALPHA;
+        if (isPurchase) {
+            purchaseTime = alpha * elapsedMs + (1 - alpha) * purchaseTime;
+        } else {
+            browseTime = alpha * elapsedMs + (1 - alpha) * browseTime;
+        }
+    }
+
+    /**
+     * Get the estimated processing time of a request.
+     *
+     * @param isPurchase whether the request is a purchase.
+     * @return estimated processing time in milliseconds.
+     */
+    public synchronized double estimate(boolean isPurchase) {
+        if (isPurchase) {
+            return Math.min(purchaseTime, Constants.PURCHASE_TIMEOUT
+                    * Constants.CONFIG_SERVICE_TIME_CAP);
+        }
+        return Math.min(browseTime, Constants.BROWSE_TIMEOUT
+                * Constants.CONFIG_SERVICE_TIME_CAP);
+    }
+}
@@ -0,0 +1,254 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * One lane of the master queue of the coordinator, split into one
+ * shard per mid-tier VM.
+ * Requests are enqueued to the shortest shard. A mid-tier drains
+ * its own shard first and steals from the longest shard when its
+ * own shard is empty. A shard is only added once its mid-tier is
+ * running and polls, so booting VMs never collect requests.
+ * Requests that arrive before that go to an unassigned shard
+ * that every mid-tier steals from.
+ * Every shard is a preallocated lock-free ring as large as the lane
+ * limit. A request that finds its shard full anyway is passed to the
+ * overflow handler instead of waiting.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class ShardedRequestQueue {
+    // The shard id for requests that have no mid-tier to go to yet.
+    public static final int UNASSIGNED_SHARD = -1;
+
+    private final Map<Integer, RingBuffer<TimedRequest>>
+            shards = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int shardCapacity;
+    private final Consumer<TimedRequest> overflow;
+
+    ShardedRequestQueue(int shardCapacity, Consumer<TimedRequest> overflow) {
+        this.shardCapacity = shardCapacity;
+        this.overflow = overflow;
+        shards.put(UNASSIGNED_SHARD, new RingBuffer<>(shardCapacity));
+    }
+
+    /**
+     * Add a request to the shortest shard.
+     * If that shard is full the request goes to the overflow handler.
+     *
+     * @param request request from load balancer.
+     */
+    public void add(TimedRequest request) {
+        // counted before the offer, so a concurrent drain never takes
+        // the size below zero
+        size.incrementAndGet();
+        offerCounted(request);
+    }
+
+    /**
+     * Add a request only if the queue holds fewer than limit requests.
+     * The slot is reserved atomically, so concurrent adds cannot go
+     * past the limit.
+     *
+     * @param request request from load balancer.
+     * @param limit maximum number of requests in the queue.
+     * @return true if the request was taken, false if the queue is full.
+     */
+    public boolean tryAdd(TimedRequest request, int limit) {
+        int cur;
+        do {
+            cur = size.get();
+            if (cur >= limit) return false;
+        } while (!size.compareAndSet(cur, cur + 1));
+        offerCounted(request);
+        return true;
+    }
+
+    /**
+     * Add a request, and if the queue already holds limit requests,
+     * take the oldest request of the shard it goes to in its place.
+     * The taken request keeps its slot for the new one, so concurrent
+     * adds neither go past the limit nor take out more than one each.
+     *
+     * @param request request from load balancer.
+     * @param limit maximum number of requests in the queue.
+     * @return the request taken out, null if the queue had room.
+     */
+    public TimedRequest addOrDisplace(TimedRequest request, int limit) {
+        while (!tryAdd(request, limit)) {
+            TimedRequest oldest = targetShard().poll();
+            if (oldest == null) {
+                // the shard it goes to is empty, take from the longest
+                List<TimedRequest> batch = new ArrayList<>(1);
+                steal(batch, 1);
+                oldest = batch.isEmpty() ? null : batch.get(0);
+            }
+            if (oldest != null) {
+                offerCounted(request);
+                return oldest;
+            }
+            // the requests counted are still being added
+            Thread.onSpinWait();
+        }
+        return null;
+    }
+
+    private void offerCounted(TimedRequest request) {
+        int shardId = shortestShard();
+        RingBuffer<TimedRequest> shard = shards.get(shardId);
+        if (shard == null) {
+            shard = shards.get(UNASSIGNED_SHARD);
+            shardId = UNASSIGNED_SHARD;
+        }
+        if (!shard.offer(request)) {
+            size.decrementAndGet();
+            overflow.accept(request);
+            return;
+        }
+        if (shardId != UNASSIGNED_SHARD && !shards.containsKey(shardId)) {
+            // the shard was removed while we were adding to it
+            redistribute(shard);
+        }
+    }
+
+    /**
+     * Add a batch of requests, each to the shortest shard.
+     *
+     * @param requests requests from load balancer.
+     */
+    public void addAll(Collection<TimedRequest> requests) {
+        for (TimedRequest r : requests) {
+            add(r);
+        }
+    }
+
+    /**
+     * Poll one request from the longest shard.
+     *
+     * @return request, null if the queue is empty.
+     */
+    public TimedRequest poll() {
+        List<TimedRequest> batch = new ArrayList<>(1);
+        size.addAndGet(-steal(batch, 1));
+        return batch.isEmpty() ? null : batch.get(0);
+    }
+
+    /**
+     * Poll a batch for the given mid-tier VM without blocking.
+     * Drains the VM's own shard and steals if it is empty.
+     * A VM without a shard only steals.
+     *
+     * @param vmId VM id of the mid-tier.
+     * @param max maximum number of requests in the batch.
+     * @return batch of requests, empty if the queue is empty.
+     */
+    public List<TimedRequest> poll(int vmId, int max) {
+        List<TimedRequest> batch = new ArrayList<>();
+        RingBuffer<TimedRequest> own = shards.get(vmId);
+        if (own != null) {
+            size.addAndGet(-own.drainTo(batch, max));
+        }
+        if (batch.isEmpty()) {
+            size.addAndGet(-steal(batch, max));
+        }
+        return batch;
+    }
+
+    /**
+     * Add an empty shard for a mid-tier VM if it has none yet.
+     *
+     * @param vmId VM id of the mid-tier.
+     */
+    public void addShard(int vmId) {
+        shards.putIfAbsent(vmId, new RingBuffer<>(shardCapacity));
+    }
+
+    /**
+     * Check whether a mid-tier VM has a shard.
+     * A mid-tier gets its shard on its first poll, so this also
+     * tells whether the VM is up and pulling work.
+     *
+     * @param vmId VM id of the mid-tier.
+     * @return true if the VM has a shard, false otherwise.
+     */
+    public boolean hasShard(int vmId) {
+        return shards.containsKey(vmId);
+    }
+
+    /**
+     * Remove the shard of a mid-tier VM and move its requests
+     * to the remaining shards.
+     *
+     * @param vmId VM id of the mid-tier.
+     */
+    public void removeShard(int vmId) {
+        if (vmId == UNASSIGNED_SHARD) return;
+        RingBuffer<TimedRequest> shard = shards.remove(vmId);
+        if (shard != null) {
+            redistribute(shard);
+        }
+    }
+
+    /**
+     * Get the total number of requests over all shards.
+     *
+     * @return number of requests.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    private void redistribute(RingBuffer<TimedRequest> shard) {
+        List<TimedRequest> orphans = new ArrayList<>();
+        size.addAndGet(-shard.drainTo(orphans, Integer.MAX_VALUE));
+        addAll(orphans);
+    }
+
+    private RingBuffer<TimedRequest> targetShard() {
+        RingBuffer<TimedRequest> shard = shards.get(shortestShard());
+        return shard == null ? shards.get(UNASSIGNED_SHARD) : shard;
+    }
+
+    // moves requests from the longest shard, the size is left to callers
+    private int steal(List<TimedRequest> batch, int max) {
+        int victimId = UNASSIGNED_SHARD;
+        RingBuffer<TimedRequest> victim = null;
+        int victimSize = 0;
+        for (Map.Entry<Integer, RingBuffer<TimedRequest>>
+                entry : shards.entrySet()) {
+            int shardSize = entry.getValue().size();
+            if (shardSize > victimSize) {
+                victimId = entry.getKey();
+                victim = entry.getValue();
+                victimSize = shardSize;
+            }
+        }
+        if (victim != null) {
+            // take half of an owned shard so that its owner keeps some work
+            int count = victimId == UNASSIGNED_SHARD
+                    ? max : Math.min(max, (victimSize + 1) / 2);
+            return victim.drainTo(batch, count);
+        }
+        return 0;
+    }
+
+    private int shortestShard() {
+        int shortest = UNASSIGNED_SHARD;
+        int shortestSize = Integer.MAX_VALUE;
+        for (Map.Entry<Integer, RingBuffer<TimedRequest>>
+                entry : shards.entrySet()) {
+            if (entry.getKey() == UNASSIGNED_SHARD) continue;
+            int shardSize = entry.getValue().size();
+            if (shardSize < shortestSize) {
+                shortest = entry.getKey();
+                shortestSize = shardSize;
+            }
+        }
+        return shortest;
+    }
+}
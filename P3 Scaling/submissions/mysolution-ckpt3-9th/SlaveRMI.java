@@ -0,0 +1,30 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Slave RMI interface.
+ * The coordinator calls slave VMs through this interface.
+ * This interface provides calls including:
+ * 1. Invalidate a key in the local database cache.
+ * 2. Receive the cluster state pushed by the coordinator.
+ * @author Ruobing Wang (ruobing2)
+ */
+public interface SlaveRMI extends Remote {
+    /**
+     * Invalidate a key in the local database cache of this VM.
+     *
+     * @param key key that was changed in the database.
+     * @param version version of the key after the change.
+     * @throws RemoteException if RMI error occurs.
+     */
+    void invalidate(String key, long version) throws RemoteException;
+
+    /**
+     * Receive the cluster state pushed by the coordinator.
+     *
+     * @param state tier registry, queue length, scaling targets and
+     *              directives.
+     * @throws RemoteException if RMI error occurs.
+     */
+    void pushClusterState(ClusterState state) throws RemoteException;
+}
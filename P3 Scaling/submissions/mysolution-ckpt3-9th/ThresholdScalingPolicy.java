@@ -0,0 +1,55 @@
+/**
+ * A simple threshold scaling policy, kept to A/B against the
+ * hysteresis policy.
+ * The front tier grows by one VM when the client queue at the master
+ * is long. The mid tier grows or shrinks by one VM when its
+ * utilization, arrival rate times service time over the number of
+ * mid-tiers, leaves the configured band. The targets are held between
+ * ticks, so a change stays until the metrics ask for another one.
+ * The front target follows the front tier down when its idle VMs
+ * leave on their own. Each tier has one cooldown, and neither tier
+ * grows while one of its VMs is still booting.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class ThresholdScalingPolicy implements ScalingPolicy {
+    private long prevFrontChangeTime = 0;
+    private long prevMidChangeTime = 0;
+    private int frontTarget = -1;
+    private int midTarget = -1;
+
+    @Override
+    public synchronized TierTargets decide(MetricsSnapshot snapshot) {
+        long time = snapshot.getTime();
+        if (midTarget < 0) {
+            midTarget = snapshot.getMidTierCount();
+        }
+        frontTarget = frontTarget < 0 ? snapshot.getFrontTierCount()
+                : Math.min(frontTarget, snapshot.getFrontTierCount());
+        if (snapshot.getFrontQueueLength() > Constants.CONFIG_FRONT_SCALE_OUT
+                && snapshot.getBootingFrontCount() == 0
+                && time - prevFrontChangeTime
+                > Constants.CONFIG_COOL_DOWN_FRONT) {
+            frontTarget++;
+            prevFrontChangeTime = time;
+        }
+
+        double utilization = snapshot.getArrivalRate()
+                * snapshot.getMidServiceTime()
+                / (1000.0 * Math.max(midTarget, 1));
+        if (time - prevMidChangeTime > Constants.CONFIG_COOL_DOWN_MID) {
+            if (utilization > Constants.CONFIG_MID_UTILIZATION_HIGH
+                    && snapshot.getBootingMidCount() == 0) {
+                midTarget++;
+                prevMidChangeTime = time;
+            } else if (utilization < Constants.CONFIG_MID_UTILIZATION_LOW) {
+                midTarget--;
+                prevMidChangeTime = time;
+            }
+        }
+        TierTargets targets = new TierTargets(frontTarget, midTarget);
+        frontTarget = targets.getFrontTarget();
+        midTarget = targets.getMidTarget();
+        return targets;
+    }
+}
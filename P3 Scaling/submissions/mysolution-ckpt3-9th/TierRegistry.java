@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The registry of which tier every VM serves, kept by the coordinator.
+ * Every change updates the map and the per-tier counts in one atomic
+ * step on the VM's entry, so the counts cannot drift when scale out,
+ * scale in and reassignment run at the same time. Every change also
+ * moves the epoch forward, so a slave holding a view of the registry
+ * only has to fetch a new one when the epoch has changed.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class TierRegistry {
+    private final Map<Integer, Integer> tiers = new ConcurrentHashMap<>();
+    private final AtomicIntegerArray counts =
+            new AtomicIntegerArray(Constants.STANDBY_TIER + 1);
+    private final AtomicLong epoch = new AtomicLong();
+
+    /**
+     * Put a VM in a tier, moving it out of the tier it was in.
+     *
+     * @param vmId VM id.
+     * @param tier tier number.
+     */
+    public void register(int vmId, int tier) {
+        tiers.compute(vmId, (id, oldTier) -> {
+            if (oldTier != null) {
+                counts.decrementAndGet(oldTier);
+            }
+            counts.incrementAndGet(tier);
+            return tier;
+        });
+        epoch.incrementAndGet();
+    }
+
+    /**
+     * Move a VM to a tier if it is still in the expected tier.
+     *
+     * @param vmId VM id.
+     * @param expectedTier tier the VM has to be in.
+     * @param tier tier number to move it to.
+     * @return true if the VM was moved, false otherwise.
+     */
+    public boolean replace(int vmId, int expectedTier, int tier) {
+        boolean[] isMoved = {false};
+        tiers.computeIfPresent(vmId, (id, oldTier) -> {
+            if (oldTier != expectedTier) return oldTier;
+            counts.decrementAndGet(oldTier);
+            counts.incrementAndGet(tier);
+            isMoved[0] = true;
+            return tier;
+        });
+        if (isMoved[0]) {
+            epoch.incrementAndGet();
+        }
+        return isMoved[0];
+    }
+
+    /**
+     * Take a VM out of its tier.
+     *
+     * @param vmId VM id.
+     * @return tier the VM was in, -1 if it was in none.
+     */
+    public int remove(int vmId) {
+        int[] removed = {-1};
+        tiers.computeIfPresent(vmId, (id, oldTier) -> {
+            counts.decrementAndGet(oldTier);
+            removed[0] = oldTier;
+            return null;
+        });
+        if (removed[0] != -1) {
+            epoch.incrementAndGet();
+        }
+        return removed[0];
+    }
+
+    /**
+     * Take a VM out of its tier unless that leaves the tier with
+     * fewer VMs than the given minimum.
+     *
+     * @param vmId VM id.
+     * @param minCounts smallest count of each tier to keep.
+     * @return tier the VM was removed from, -1 if it was kept.
+     */
+    public int removeAboveMin(int vmId, int[] minCounts) {
+        int[] removed = {-1};
+        tiers.computeIfPresent(vmId, (id, oldTier) -> {
+            // decrement only while above the minimum, so that two
+            // removals from the same tier cannot both pass the check
+            int count = counts.get(oldTier);
+            while (count > minCounts[oldTier]) {
+                if (counts.compareAndSet(oldTier, count, count - 1)) {
+                    removed[0] = oldTier;
+                    return null;
+                }
+                count = counts.get(oldTier);
+            }
+            return oldTier;
+        });
+        if (removed[0] != -1) {
+            epoch.incrementAndGet();
+        }
+        return removed[0];
+    }
+
+    /**
+     * Get the tier of a VM.
+     *
+     * @param vmId VM id.
+     * @return tier number, -1 if the VM is in no tier.
+     */
+    public int getTier(int vmId) {
+        return tiers.getOrDefault(vmId, -1);
+    }
+
+    /**
+     * Get the number of VMs in a tier.
+     *
+     * @param tier tier number.
+     * @return number of VMs in the tier.
+     */
+    public int count(int tier) {
+        return counts.get(tier);
+    }
+
+    /**
+     * Get the ids of the VMs in a tier.
+     *
+     * @param tier tier number.
+     * @return ids of the VMs in the tier.
+     */
+    public List<Integer> idsIn(int tier) {
+        List<Integer> ids = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : tiers.entrySet()) {
+            if (entry.getValue() == tier) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
+    }
+
+    public long getEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Copy the registry into a view that can be sent to a slave.
+     * The epoch is read first, so a change racing the copy shows up
+     * as a newer epoch on the next refresh.
+     *
+     * @return view of the registry.
+     */
+    public TierView view() {
+        long curEpoch = epoch.get();
+        return new TierView(curEpoch, new HashMap<>(tiers));
+    }
+}
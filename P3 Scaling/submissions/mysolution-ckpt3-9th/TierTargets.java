@@ -0,0 +1,23 @@
+/**
+ * This class is used to store the target sizes of the tiers
+ * decided by a scaling policy.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class TierTargets {
+    private final int frontTarget;
+    private final int midTarget;
+
+    TierTargets(int frontTarget, int midTarget) {
+        this.frontTarget = Math.max(frontTarget, Constants.MIN_FRONT_TIER_SIZE);
+        this.midTarget = Math.max(midTarget, Constants.MIN_MID_TIER_SIZE);
+    }
+
+    public int getFrontTarget() {
+        return frontTarget;
+    }
+
+    public int getMidTarget() {
+        return midTarget;
+    }
+}
@@ -0,0 +1,46 @@
+import java.io.Serializable;
+import java.util.HashMap;
+
+/**
+ * This class is used to carry a copy of the tier registry to a slave,
+ * which keeps it until the epoch of the registry changes.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class TierView implements Serializable {
+    private final long epoch;
+    private final HashMap<Integer, Integer> tiers;
+    private final int[] counts = new int[Constants.STANDBY_TIER + 1];
+
+    TierView(long epoch, HashMap<Integer, Integer> tiers) {
+        this.epoch = epoch;
+        this.tiers = tiers;
+        for (int tier : tiers.values()) {
+            counts[tier]++;
+        }
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Get the tier of a VM.
+     *
+     * @param vmId VM id.
+     * @return tier number, -1 if the VM is in no tier.
+     */
+    public int getTier(int vmId) {
+        return tiers.getOrDefault(vmId, -1);
+    }
+
+    /**
+     * Get the number of VMs in a tier.
+     *
+     * @param tier tier number.
+     * @return number of VMs in the tier.
+     */
+    public int count(int tier) {
+        return counts[tier];
+    }
+}
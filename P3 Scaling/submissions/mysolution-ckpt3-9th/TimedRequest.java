@@ -0,0 +1,47 @@
+import java.io.Serializable;
+
+/**
+ * This class is used to carry a request together with the time
+ * it was accepted from the load balancer, so every tier can tell
+ * how much of the client timeout is left.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class TimedRequest implements Serializable {
+    private final Cloud.FrontEndOps.Request request;
+    private final long arrivalTime;
+
+    TimedRequest(Cloud.FrontEndOps.Request request) {
+        this(request, System.currentTimeMillis());
+    }
+
+    TimedRequest(Cloud.FrontEndOps.Request request, long arrivalTime) {
+        this.request = request;
+        this.arrivalTime = arrivalTime;
+    }
+
+    public Cloud.FrontEndOps.Request getRequest() {
+        return request;
+    }
+
+    /**
+     * Get the time a client waits for this request before it
+     * gives up.
+     *
+     * @return client timeout in milliseconds.
+     */
+    public long getTimeout() {
+        return request.isPurchase
+                ? Constants.PURCHASE_TIMEOUT : Constants.BROWSE_TIMEOUT;
+    }
+
+    /**
+     * Get the time left before the client times out.
+     *
+     * @param curTime The current time.
+     * @return time left in milliseconds, negative if already late.
+     */
+    public long getTimeLeft(long curTime) {
+        return arrivalTime + getTimeout() - curTime;
+    }
+}
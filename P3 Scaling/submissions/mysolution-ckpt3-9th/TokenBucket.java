@@ -0,0 +1,52 @@
+/**
+ * A token bucket that admits requests at a given rate, with room for
+ * a short burst above it.
+ * The rate can be changed at any time. An infinite rate admits
+ * everything, which is how admission stays off until there is a
+ * measured capacity to size it from.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class TokenBucket {
+    private double rate = Double.POSITIVE_INFINITY;
+    private double capacity = Double.POSITIVE_INFINITY;
+    private double tokens = 0;
+    private long prevRefillTime = System.nanoTime();
+
+    /**
+     * Take a token if there is one.
+     *
+     * @return true if the request is admitted, false otherwise.
+     */
+    public synchronized boolean tryAcquire() {
+        if (Double.isInfinite(rate)) return true;
+        refill();
+        if (tokens < 1) return false;
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * Change the rate, keeping the tokens saved up so far within the
+     * burst the new rate allows.
+     *
+     * @param rate tokens per second, infinite to admit everything.
+     */
+    public synchronized void setRate(double rate) {
+        refill();
+        boolean wasOff = Double.isInfinite(this.rate);
+        this.rate = rate;
+        this.capacity = Math.max(1, rate * Constants.CONFIG_ADMISSION_BURST);
+        // a bucket that was admitting everything starts out full
+        tokens = wasOff ? capacity : Math.min(tokens, capacity);
+    }
+
+    private void refill() {
+        long curTime = System.nanoTime();
+        if (!Double.isInfinite(rate)) {
+            tokens = Math.min(capacity,
+                    tokens + (curTime - prevRefillTime) / 1e9 * rate);
+        }
+        prevRefillTime = curTime;
+    }
+}
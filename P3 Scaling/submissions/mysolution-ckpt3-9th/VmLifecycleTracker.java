@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class tracks the lifecycle of every VM the coordinator has
+ * started, so that scaling decisions can count VMs that are still
+ * booting as capacity that is on its way.
+ * States only move forward: requested, booting, running, draining
+ * and ended.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class VmLifecycleTracker {
+    private final Map<Integer, VmRecord> records = new ConcurrentHashMap<>();
+
+    /**
+     * Record a VM that was started for a tier.
+     *
+     * @param vmId VM id returned by startVM.
+     * @param tier tier number of the VM.
+     * @param requestedAt time startVM was called.
+     */
+    public void booting(int vmId, int tier, long requestedAt) {
+        VmRecord record = new VmRecord(vmId, tier, VmState.REQUESTED,
+                requestedAt);
+        record.transition(VmState.BOOTING, System.currentTimeMillis());
+        records.put(vmId, record);
+    }
+
+    /**
+     * Move a VM to a later state of its lifecycle.
+     * Moves backwards, such as a late running report for a VM that
+     * is already draining, are ignored.
+     *
+     * @param vmId VM id.
+     * @param state new state.
+     */
+    public void transition(int vmId, VmState state) {
+        VmRecord record = records.get(vmId);
+        if (record == null) return;
+        synchronized (record) {
+            if (state.compareTo(record.getState()) > 0) {
+                record.transition(state, System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Record a VM that is running from the start, such as the master.
+     *
+     * @param vmId VM id.
+     * @param tier tier number of the VM.
+     */
+    public void running(int vmId, int tier) {
+        records.put(vmId, new VmRecord(vmId, tier, VmState.RUNNING,
+                System.currentTimeMillis()));
+    }
+
+    /**
+     * Move a standby VM to the tier it was promoted to.
+     *
+     * @param vmId VM id.
+     * @param tier tier number the VM now serves.
+     */
+    public void assign(int vmId, int tier) {
+        VmRecord record = records.get(vmId);
+        if (record == null) return;
+        synchronized (record) {
+            record.setTier(tier);
+        }
+    }
+
+    /**
+     * Get the state of a VM.
+     *
+     * @param vmId VM id.
+     * @return state of the VM, null if it is unknown.
+     */
+    public VmState getState(int vmId) {
+        VmRecord record = records.get(vmId);
+        return record == null ? null : record.getState();
+    }
+
+    /**
+     * Count the VMs of a tier in the given state.
+     *
+     * @param tier tier number.
+     * @param state state to count.
+     * @return number of VMs.
+     */
+    public int count(int tier, VmState state) {
+        int count = 0;
+        for (VmRecord record : records.values()) {
+            if (record.getTier() == tier && record.getState() == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the ids of the VMs in the given state.
+     *
+     * @param state state to look for.
+     * @return ids of the VMs.
+     */
+    public List<Integer> idsIn(VmState state) {
+        List<Integer> ids = new ArrayList<>();
+        for (VmRecord record : records.values()) {
+            if (record.getState() == state) {
+                ids.add(record.getVmId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Get a copy of the lifecycle table.
+     *
+     * @return map from VM id to its record.
+     */
+    public HashMap<Integer, VmRecord> snapshot() {
+        HashMap<Integer, VmRecord> copy = new HashMap<>();
+        for (VmRecord record : records.values()) {
+            synchronized (record) {
+                copy.put(record.getVmId(), new VmRecord(record));
+            }
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,61 @@
+import java.io.Serializable;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * This class is used to store the lifecycle of a VM: its tier,
+ * its current state and when it entered each state.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public class VmRecord implements Serializable {
+    private final int vmId;
+    private int tier;
+    private VmState state;
+    private final EnumMap<VmState, Long> transitionTimes =
+            new EnumMap<>(VmState.class);
+
+    VmRecord(int vmId, int tier, VmState state, long time) {
+        this.vmId = vmId;
+        this.tier = tier;
+        this.state = state;
+        transitionTimes.put(state, time);
+    }
+
+    VmRecord(VmRecord other) {
+        this.vmId = other.vmId;
+        this.tier = other.tier;
+        this.state = other.state;
+        this.transitionTimes.putAll(other.transitionTimes);
+    }
+
+    public int getVmId() {
+        return vmId;
+    }
+
+    public int getTier() {
+        return tier;
+    }
+
+    public VmState getState() {
+        return state;
+    }
+
+    /**
+     * Get the time the VM entered each state it has been in.
+     *
+     * @return map from state to time in milliseconds.
+     */
+    public Map<VmState, Long> getTransitionTimes() {
+        return transitionTimes;
+    }
+
+    void setTier(int tier) {
+        this.tier = tier;
+    }
+
+    void transition(VmState state, long time) {
+        this.state = state;
+        transitionTimes.put(state, time);
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * The lifecycle states of a VM as seen by the coordinator.
+ *
+ * @author Ruobing Wang (ruobing2)
+ */
+public enum VmState {
+    // startVM has been requested but has not returned an id yet.
+    REQUESTED,
+    // The VM has an id and is still booting.
+    BOOTING,
+    // The VM is up and serving its tier.
+    RUNNING,
+    // The VM is finishing its work before it shuts down.
+    DRAINING,
+    // The VM has left its tier or has been ended.
+    ENDED
+}